@@ -0,0 +1,43 @@
+package io.github.sunleader1997.jmemqueue.jcstress;
+
+import io.github.sunleader1997.jmemqueue.AtomicVarHandle;
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.JJ_Result;
+
+import java.nio.ByteBuffer;
+
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE;
+import static org.openjdk.jcstress.annotations.Expect.FORBIDDEN;
+
+/**
+ * 读者 offset 领取: opaque 预读 + CAS，两个读者不能领取到同一个 offset
+ */
+@JCStressTest
+@Outcome(id = {"0, 1", "1, 0"}, expect = ACCEPTABLE, desc = "distinct offsets claimed")
+@Outcome(expect = FORBIDDEN, desc = "same offset claimed twice")
+@State
+public class OffsetClaimTest {
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+
+    private long claim() {
+        while (true) {
+            long offset = AtomicVarHandle.getLongOpaque(buffer, 0);
+            if (AtomicVarHandle.compareAndSetLong(buffer, 0, offset, offset + 1)) {
+                return offset;
+            }
+        }
+    }
+
+    @Actor
+    public void reader1(JJ_Result r) {
+        r.r1 = claim();
+    }
+
+    @Actor
+    public void reader2(JJ_Result r) {
+        r.r2 = claim();
+    }
+}
@@ -0,0 +1,36 @@
+package io.github.sunleader1997.jmemqueue.jcstress;
+
+import io.github.sunleader1997.jmemqueue.AtomicVarHandle;
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.II_Result;
+
+import java.nio.ByteBuffer;
+
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE;
+import static org.openjdk.jcstress.annotations.Expect.FORBIDDEN;
+
+/**
+ * 消息传递 (MP) 测试: release 写入的标志被 acquire 读到后，之前的普通写入必须可见
+ */
+@JCStressTest
+@Outcome(id = {"0, 0", "0, 7", "1, 7"}, expect = ACCEPTABLE, desc = "ordered")
+@Outcome(id = "1, 0", expect = FORBIDDEN, desc = "flag observed but data not visible")
+@State
+public class ReleaseAcquireTest {
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(256);
+
+    @Actor
+    public void writer() {
+        buffer.putInt(0, 7);
+        AtomicVarHandle.setIntRelease(buffer, 128, 1);
+    }
+
+    @Actor
+    public void reader(II_Result r) {
+        r.r1 = AtomicVarHandle.getIntAcquire(buffer, 128);
+        r.r2 = buffer.getInt(0);
+    }
+}
@@ -0,0 +1,56 @@
+package io.github.sunleader1997.jmemqueue.jcstress;
+
+import io.github.sunleader1997.jmemqueue.CarriageMemory;
+import io.github.sunleader1997.jmemqueue.JSharedMemSegment;
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.II_Result;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE;
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE_INTERESTING;
+import static org.openjdk.jcstress.annotations.Expect.FORBIDDEN;
+
+/**
+ * SMG 发布协议: writeContent 先写 size 与内容，再以 release 写入 STATE_READABLE
+ * 读方以 acquire 读到 STATE_READABLE 后，必须看到完整的 size 与内容
+ */
+@JCStressTest
+@Outcome(id = "-1, -1", expect = ACCEPTABLE, desc = "not published yet")
+@Outcome(id = "4, 42", expect = ACCEPTABLE_INTERESTING, desc = "published, content complete")
+@Outcome(expect = FORBIDDEN, desc = "readable state observed with incomplete content")
+@State
+public class SegmentPublicationTest {
+    private static final byte[] PAYLOAD = ByteBuffer.allocate(4).order(ByteOrder.BIG_ENDIAN).putInt(42).array();
+
+    private final JSharedMemSegment writer;
+    private final JSharedMemSegment reader;
+
+    public SegmentPublicationTest() {
+        CarriageMemory memory = CarriageMemory.wrap(ByteBuffer.allocateDirect(64));
+        // 两个享元指向同一块内存，模拟生产者与消费者各自的车厢映射
+        this.writer = new JSharedMemSegment(memory, 32, 0);
+        this.reader = new JSharedMemSegment(memory, 32, 0);
+    }
+
+    @Actor
+    public void producer() {
+        writer.writeContent(PAYLOAD);
+    }
+
+    @Actor
+    public void consumer(II_Result r) {
+        if (reader.isReadable()) {
+            byte[] data = reader.readContent();
+            r.r1 = data.length;
+            r.r2 = data.length == 4 ? ByteBuffer.wrap(data).order(ByteOrder.BIG_ENDIAN).getInt() : -2;
+        } else {
+            r.r1 = -1;
+            r.r2 = -1;
+        }
+    }
+}
@@ -5,6 +5,12 @@ import java.lang.invoke.VarHandle;
 import java.nio.Buffer;
 import java.nio.ByteOrder;
 
+/**
+ * 共享内存原子访问
+ * volatile: 全屏障，只用于初始化等冷路径
+ * acquire/release: 发布/消费协议，写方 release 之前的写入对 acquire 读到该值的读方可见
+ * opaque: 只保证单个变量的原子性与最终可见，用于 CAS 之前的预读和统计计数
+ */
 public class AtomicVarHandle {
     /**
      * VarHandle用于对ByteBuffer进行CAS操作
@@ -20,6 +26,22 @@ public class AtomicVarHandle {
         INT_HANDLE.setVolatile(buffer, offset, newState);
     }
 
+    public static int getIntAcquire(Buffer buffer, int offset) {
+        return (int) INT_HANDLE.getAcquire(buffer, offset);
+    }
+
+    public static void setIntRelease(Buffer buffer, int offset, int newState) {
+        INT_HANDLE.setRelease(buffer, offset, newState);
+    }
+
+    public static int getIntOpaque(Buffer buffer, int offset) {
+        return (int) INT_HANDLE.getOpaque(buffer, offset);
+    }
+
+    public static void setIntOpaque(Buffer buffer, int offset, int newState) {
+        INT_HANDLE.setOpaque(buffer, offset, newState);
+    }
+
     public static boolean compareAndSetInt(Buffer buffer, int offset, int expectedState, int newState) {
         return INT_HANDLE.compareAndSet(buffer, offset, expectedState, newState);
     }
@@ -32,7 +54,39 @@ public class AtomicVarHandle {
         LONG_HANDLE.setVolatile(buffer, offset, newState);
     }
 
+    public static long getLongAcquire(Buffer buffer, int offset) {
+        return (long) LONG_HANDLE.getAcquire(buffer, offset);
+    }
+
+    public static long getLongVolatile(Buffer buffer, int offset) {
+        return (long) LONG_HANDLE.getVolatile(buffer, offset);
+    }
+
+    public static void setLongRelease(Buffer buffer, int offset, long newState) {
+        LONG_HANDLE.setRelease(buffer, offset, newState);
+    }
+
+    public static long getLongOpaque(Buffer buffer, int offset) {
+        return (long) LONG_HANDLE.getOpaque(buffer, offset);
+    }
+
+    public static void setLongOpaque(Buffer buffer, int offset, long newState) {
+        LONG_HANDLE.setOpaque(buffer, offset, newState);
+    }
+
+    public static long getAndAddLong(Buffer buffer, int offset, long delta) {
+        return (long) LONG_HANDLE.getAndAdd(buffer, offset, delta);
+    }
+
     public static boolean compareAndSetLong(Buffer buffer, int offset, long expectedState, long newState) {
         return LONG_HANDLE.compareAndSet(buffer, offset, expectedState, newState);
     }
+
+    public static long getAndBitwiseOrLong(Buffer buffer, int offset, long mask) {
+        return (long) LONG_HANDLE.getAndBitwiseOr(buffer, offset, mask);
+    }
+
+    public static long getAndBitwiseAndLong(Buffer buffer, int offset, long mask) {
+        return (long) LONG_HANDLE.getAndBitwiseAnd(buffer, offset, mask);
+    }
 }
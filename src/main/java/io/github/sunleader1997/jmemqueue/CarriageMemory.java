@@ -0,0 +1,130 @@
+package io.github.sunleader1997.jmemqueue;
+
+import io.github.sunleader1997.jmemqueue.ttl.JCleaner;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 车厢存储后端 (JDK 17: MappedByteBuffer)
+ * 所有索引均为 long，JDK 22+ 会使用 META-INF/versions/22 下基于 MemorySegment 的实现，
+ * 此实现受 MappedByteBuffer 的 int 索引限制，单个车厢不能超过 2GB
+ * 普通读写为大端序 (与 ByteBuffer 默认一致)，原子读写为本地字节序 (与 {@link AtomicVarHandle} 一致)
+ */
+public final class CarriageMemory implements AutoCloseable {
+    /**
+     * 单个车厢映射的最大字节数
+     */
+    public static final long MAX_SIZE = Integer.MAX_VALUE;
+
+    private final ByteBuffer buffer;
+    private final boolean mapped;
+
+    private CarriageMemory(ByteBuffer buffer, boolean mapped) {
+        this.buffer = buffer;
+        this.mapped = mapped;
+    }
+
+    /**
+     * 映射车厢文件
+     */
+    public static CarriageMemory map(FileChannel channel, FileChannel.MapMode mode, long size) throws IOException {
+        if (size > MAX_SIZE) {
+            throw new IOException("车厢大小超过 " + MAX_SIZE + "B，需要 JDK 22+ 的 MemorySegment 后端: " + size);
+        }
+        return new CarriageMemory(channel.map(mode, 0, size), true);
+    }
+
+    /**
+     * 包装已有的内存，不负责释放
+     */
+    public static CarriageMemory wrap(ByteBuffer buffer) {
+        return new CarriageMemory(buffer, false);
+    }
+
+    public long byteSize() {
+        return buffer.capacity();
+    }
+
+    public byte getByte(long index) {
+        return buffer.get((int) index);
+    }
+
+    public void putByte(long index, byte value) {
+        buffer.put((int) index, value);
+    }
+
+    public int getInt(long index) {
+        return buffer.getInt((int) index);
+    }
+
+    public void putInt(long index, int value) {
+        buffer.putInt((int) index, value);
+    }
+
+    public long getLong(long index) {
+        return buffer.getLong((int) index);
+    }
+
+    public void putLong(long index, long value) {
+        buffer.putLong((int) index, value);
+    }
+
+    public int getIntVolatile(long index) {
+        return AtomicVarHandle.getInt(buffer, (int) index);
+    }
+
+    public void setIntVolatile(long index, int value) {
+        AtomicVarHandle.setInt(buffer, (int) index, value);
+    }
+
+    public int getIntAcquire(long index) {
+        return AtomicVarHandle.getIntAcquire(buffer, (int) index);
+    }
+
+    public void setIntRelease(long index, int value) {
+        AtomicVarHandle.setIntRelease(buffer, (int) index, value);
+    }
+
+    public boolean compareAndSetInt(long index, int expected, int value) {
+        return AtomicVarHandle.compareAndSetInt(buffer, (int) index, expected, value);
+    }
+
+    public void get(long index, byte[] dst, int offset, int length) {
+        buffer.get((int) index, dst, offset, length);
+    }
+
+    public void put(long index, byte[] src, int offset, int length) {
+        buffer.put((int) index, src, offset, length);
+    }
+
+    /**
+     * 将整个映射刷新到磁盘
+     */
+    public void force() {
+        if (mapped) {
+            ((MappedByteBuffer) buffer).force();
+        }
+    }
+
+    /**
+     * 将指定范围刷新到磁盘
+     */
+    public void force(long index, long length) {
+        if (mapped) {
+            ((MappedByteBuffer) buffer).force((int) index, (int) length);
+        }
+    }
+
+    /**
+     * 解除映射，之后不能再访问
+     */
+    @Override
+    public void close() {
+        if (mapped) {
+            JCleaner.clean((MappedByteBuffer) buffer);
+        }
+    }
+}
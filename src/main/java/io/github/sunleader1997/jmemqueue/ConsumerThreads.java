@@ -0,0 +1,20 @@
+package io.github.sunleader1997.jmemqueue;
+
+/**
+ * 消费者线程工厂
+ * JDK 21+ 上由 META-INF/versions/21 中的实现替换为虚拟线程，这里是平台守护线程
+ */
+final class ConsumerThreads {
+    private ConsumerThreads() {
+    }
+
+    static boolean isVirtual() {
+        return false;
+    }
+
+    static Thread newThread(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -1,5 +1,7 @@
 package io.github.sunleader1997.jmemqueue;
 
+import io.github.sunleader1997.jmemqueue.storage.StoragePolicy;
+
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -7,7 +9,9 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 
 public class Dictionary {
-    public static final Path PARENT_DIR = Paths.get(System.getProperty("java.io.tmpdir")).resolve("JSMQ");
+    private static final System.Logger LOGGER = System.getLogger(Dictionary.class.getName());
+    public static final String ROOT_NAME = "JSMQ";
+    public static final Path PARENT_DIR = Paths.get(System.getProperty("java.io.tmpdir")).resolve(ROOT_NAME);
 
     static {
         try {
@@ -20,14 +24,22 @@ public class Dictionary {
     }
 
     public static Path getTopicDir(String topic) {
-        return PARENT_DIR.resolve(topic);
+        return getTopicDir(PARENT_DIR, topic);
+    }
+
+    public static Path getTopicDir(Path parentDir, String topic) {
+        return parentDir.resolve(topic);
     }
 
     public static Path getAndMakeTopicDir(String topic) {
-        Path dir = getTopicDir(topic);
+        return getAndMakeTopicDir(PARENT_DIR, topic);
+    }
+
+    public static Path getAndMakeTopicDir(Path parentDir, String topic) {
+        Path dir = getTopicDir(parentDir, topic);
         try {
             if (!Files.exists(dir)) {
-                Files.createDirectory(dir);
+                Files.createDirectories(dir);
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -36,8 +48,23 @@ public class Dictionary {
     }
 
     public static void deleteTopic(String topic) {
-        boolean delete = deleteDirectory(getTopicDir(topic).toFile());
-        System.out.println("【DELETE】 TOPIC " + topic + " S " + delete);
+        deleteTopic(PARENT_DIR, topic);
+    }
+
+    public static void deleteTopic(Path parentDir, String topic) {
+        JSharedMemRegistry.evict(getTopicDir(parentDir, topic)); // 同名的新 topic 重新映射新文件
+        boolean delete = deleteDirectory(getTopicDir(parentDir, topic).toFile());
+        LOGGER.log(System.Logger.Level.INFO, "【DELETE】 TOPIC {0} S {1}", topic, delete);
+    }
+
+    /**
+     * 删除策略下的 topic，包括控制文件目录与车厢目录
+     */
+    public static void deleteTopic(StoragePolicy storagePolicy, String topic) {
+        deleteTopic(storagePolicy.getParentDir(), topic);
+        if (!storagePolicy.getCarriageParentDir().equals(storagePolicy.getParentDir())) {
+            deleteTopic(storagePolicy.getCarriageParentDir(), topic);
+        }
     }
 
     public static boolean deleteDirectory(File directory) {
@@ -0,0 +1,267 @@
+package io.github.sunleader1997.jmemqueue;
+
+import io.github.sunleader1997.jmemqueue.archive.JCarriageArchive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 冷车厢归档
+ * 所有 group 都已经消费过、且生产者已经写满的车厢会被重写为压缩的 .archive 文件，然后删除 .carriage
+ * 读者打开车厢时如果只找到 .archive，会透明地从归档中读取 (用于回放)
+ * 压实 topic: 生产者写满即可压实 (不等待 group)，只保留每个 key 的最新记录，已有的归档在出现新值后会被再次压实
+ */
+public class JSharedMemArchiver implements AutoCloseable {
+    private static final System.Logger LOGGER = System.getLogger(JSharedMemArchiver.class.getName());
+    public static final String READER_FILE_ENDS = ".reader";
+
+    private final JSharedMemBaseInfo jSharedMemBaseInfo;
+    private final long intervalNanos;
+    private final Thread thread;
+    private volatile boolean running = true;
+    private JSharedMemKeyIndex keyIndex; // 压实 topic 的 key 索引，第一次压实时打开
+    private long settledOffset; // 本轮开始时索引的已确认位置，之后的新记录可能还没有发布
+
+    public JSharedMemArchiver(JSharedMemBaseInfo jSharedMemBaseInfo, long interval, TimeUnit timeUnit) {
+        this.jSharedMemBaseInfo = jSharedMemBaseInfo;
+        this.jSharedMemBaseInfo.mmap(FileChannel.MapMode.READ_ONLY);
+        this.intervalNanos = timeUnit.toNanos(interval);
+        this.thread = new Thread(this::run, "JSMQ-archiver-" + jSharedMemBaseInfo.getTopic());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void run() {
+        while (running) {
+            LockSupport.parkNanos(this, intervalNanos);
+            if (!running) break;
+            try {
+                archive();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 立即归档所有已封存的车厢
+     *
+     * @return 本次归档的车厢数量
+     */
+    public synchronized int archive() throws IOException {
+        long capacity = jSharedMemBaseInfo.readCarriage();
+        if (capacity <= 0) return 0;
+        boolean compacted = openKeyIndex();
+        if (compacted) {
+            settledOffset = keyIndex.settle(jSharedMemBaseInfo);
+        }
+        long sealedOffset = compacted ? jSharedMemBaseInfo.readTotalOffset() : Math.min(jSharedMemBaseInfo.readTotalOffset(), minGroupOffset());
+        int archived = 0;
+        if (compacted) {
+            for (long carriageIndex : listCarriageIndexes(JSharedMemCarriage.ARCHIVE_FILE_ENDS)) {
+                if ((carriageIndex + 1) * capacity > sealedOffset) break;
+                if (recompact(carriageIndex, capacity)) {
+                    archived++;
+                }
+            }
+        }
+        for (long carriageIndex : listCarriageIndexes(JSharedMemCarriage.CARRIAGE_FILE_ENDS)) {
+            if ((carriageIndex + 1) * capacity > sealedOffset) break;
+            if (archive(carriageIndex, capacity)) {
+                archived++;
+            }
+        }
+        return archived;
+    }
+
+    /**
+     * 压实 topic 且 key 索引已存在时打开索引
+     */
+    private boolean openKeyIndex() {
+        if (keyIndex == null && jSharedMemBaseInfo.isCompacted()) {
+            Path path = JSharedMemKeyIndex.getPath(jSharedMemBaseInfo);
+            if (Files.exists(path)) {
+                keyIndex = new JSharedMemKeyIndex(path, JSharedMemKeyIndex.DEF_SLOTS); // 槽位数量以文件为准
+            }
+        }
+        return keyIndex != null;
+    }
+
+    /**
+     * 记录是否已经被同一个 key 的新记录覆盖
+     * 生产者先更新索引再发布，新记录在已确认位置之后时可能永远不会发布 (生产者崩溃)，此时保留旧记录
+     */
+    private boolean isSuperseded(long key, long offset) {
+        if (keyIndex == null) return false;
+        long latest = keyIndex.get(key);
+        return latest > offset && latest < settledOffset;
+    }
+
+    /**
+     * 所有 group 中最慢的 offset，没有 group 时不限制
+     * 崩溃进程留下的临时 reader (随机 group) 没有存活成员时忽略；
+     * 具名 group 最近一次心跳超过默认 TTL (车厢本身也已经被清理) 时忽略，否则离线的 group 仍然阻止归档
+     */
+    private long minGroupOffset() throws IOException {
+        File[] readerFiles = jSharedMemBaseInfo.getTopicDir().toFile().listFiles(file -> file.isFile() && file.getName().endsWith(READER_FILE_ENDS));
+        long min = Long.MAX_VALUE;
+        if (readerFiles == null) return min;
+        ByteBuffer buffer = ByteBuffer.allocate(JSharedMemMembership.FILE_SIZE).order(ByteOrder.nativeOrder()); // 与 AtomicVarHandle 一致
+        long now = System.currentTimeMillis();
+        long groupCleanBefore = JSharedMemQueue.DEF_TTL.getCleanBefore();
+        for (File readerFile : readerFiles) {
+            buffer.clear();
+            try (RandomAccessFile accessFile = new RandomAccessFile(readerFile, "r")) {
+                FileChannel channel = accessFile.getChannel();
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, buffer.position()) <= 0) break;
+                }
+            }
+            if (buffer.position() < Long.BYTES) continue;
+            // 旧版本文件没有成员表，视为没有心跳
+            long lastHeartbeat = buffer.hasRemaining() ? 0 : new JSharedMemMembership(buffer).lastHeartbeat();
+            boolean live = now - lastHeartbeat <= JSharedMemHeartbeat.MEMBER_TIMEOUT_MS;
+            if (!live && (isTemporaryGroup(readerFile) || lastHeartbeat < groupCleanBefore)) {
+                continue;
+            }
+            min = Math.min(min, AtomicVarHandle.getLong(buffer, 0));
+        }
+        return min;
+    }
+
+    /**
+     * {@link JSharedMemQueue#createReader()} 创建的临时 reader 以随机 UUID 为 group
+     */
+    private static boolean isTemporaryGroup(File readerFile) {
+        String name = readerFile.getName();
+        try {
+            UUID.fromString(name.substring(0, name.length() - READER_FILE_ENDS.length()));
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 同步目录项，保证重命名在删除原文件之前落盘；不支持打开目录的平台 (Windows) 上忽略
+     */
+    private static void forceDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignore) {
+        }
+    }
+
+    private long[] listCarriageIndexes(String fileEnds) {
+        File[] files = jSharedMemBaseInfo.getCarriageDir().toFile().listFiles(file -> file.isFile() && file.getName().endsWith(fileEnds));
+        if (files == null) return new long[0];
+        long[] indexes = new long[files.length];
+        int count = 0;
+        for (File file : files) {
+            String name = file.getName();
+            try {
+                indexes[count] = Long.parseLong(name.substring(0, name.length() - fileEnds.length()));
+                count++;
+            } catch (NumberFormatException ignore) {
+            }
+        }
+        long[] result = Arrays.copyOf(indexes, count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * 归档单个车厢，存在没有写完的 SMG 时跳过，等待下一轮
+     */
+    private boolean archive(long carriageIndex, long capacity) throws IOException {
+        long beginOffset = carriageIndex * capacity;
+        JSharedMemCarriage carriage = new JSharedMemCarriage(jSharedMemBaseInfo, beginOffset, null).mmap(FileChannel.MapMode.READ_ONLY);
+        if (!carriage.exist() || carriage.isArchived()) {
+            carriage.close();
+            return false;
+        }
+        File carriageFile = carriage.getCarriageFile();
+        Path archivePath = carriage.getArchivePath(carriageIndex);
+        Path tmpPath = archivePath.resolveSibling(archivePath.getFileName() + ".tmp");
+        boolean complete = true;
+        try (JCarriageArchive.Writer writer = new JCarriageArchive.Writer(tmpPath, carriageIndex, capacity, jSharedMemBaseInfo.readMsgMaxSize(), jSharedMemBaseInfo.readFlags())) {
+            for (long offset = beginOffset; offset < beginOffset + capacity; offset++) {
+                JSharedMemSegment segment = carriage.getSegment(offset);
+                int state = segment.getStateAcquire();
+                if (state == JSharedMemSegment.STATE_DISCARDED) continue; // 归档中不保留
+                if (state != JSharedMemSegment.STATE_READABLE) {
+                    complete = false;
+                    break;
+                }
+                if (isSuperseded(segment.getTag(), offset)) continue;
+                writer.append(offset, segment);
+            }
+        } finally {
+            carriage.close();
+        }
+        if (!complete) {
+            Files.deleteIfExists(tmpPath);
+            return false;
+        }
+        long lastModified = carriageFile.lastModified();
+        Files.move(tmpPath, archivePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        archivePath.toFile().setLastModified(lastModified); // TTL 按原始车厢的时间计算
+        forceDirectory(archivePath.getParent()); // 归档落盘之后才能删除车厢
+        boolean remove = carriageFile.delete();
+        LOGGER.log(System.Logger.Level.INFO, "ARCHIVE DAT {0} STATUS: {1}", carriageFile.getName(), remove);
+        return true;
+    }
+
+    /**
+     * 再次压实已有的归档，没有被覆盖的记录时不重写
+     */
+    private boolean recompact(long carriageIndex, long capacity) throws IOException {
+        Path archivePath = jSharedMemBaseInfo.getCarriageDir().resolve(carriageIndex + JSharedMemCarriage.ARCHIVE_FILE_ENDS);
+        Path tmpPath = archivePath.resolveSibling(archivePath.getFileName() + ".tmp");
+        try (JCarriageArchive archive = JCarriageArchive.open(archivePath)) {
+            int[] superseded = {0};
+            archive.forEach((offset, tag, content, contentOffset, length) -> {
+                if (isSuperseded(tag, offset)) superseded[0]++;
+            });
+            if (superseded[0] == 0) return false;
+            try (JCarriageArchive.Writer writer = new JCarriageArchive.Writer(tmpPath, carriageIndex, capacity, archive.getMsgMaxSize(), archive.getFlags())) {
+                archive.forEach((offset, tag, content, contentOffset, length) -> {
+                    if (!isSuperseded(tag, offset)) writer.append(offset, tag, content, contentOffset, length);
+                });
+            }
+        }
+        long lastModified = archivePath.toFile().lastModified();
+        Files.move(tmpPath, archivePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        archivePath.toFile().setLastModified(lastModified);
+        forceDirectory(archivePath.getParent());
+        LOGGER.log(System.Logger.Level.INFO, "COMPACT DAT {0}", archivePath.getFileName());
+        return true;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (keyIndex != null) {
+            keyIndex.close();
+        }
+        jSharedMemBaseInfo.close();
+    }
+}
@@ -1,73 +1,130 @@
 package io.github.sunleader1997.jmemqueue;
 
+import io.github.sunleader1997.jmemqueue.storage.StoragePolicy;
+
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 
 /**
  * 队列基础信息
- * 0. 队列总偏移量
- * 1. 车厢容量
+ * 布局 V2 (按 128 字节隔离缓存行，避免生产者 CAS 使读者读取的元数据失效):
+ * [0,128)   冷数据行: 车厢容量(8) 数据元容量(16) 布局版本(20) 特性标记(24)，只在初始化时写入
+ * [128,256) 热数据行: 队列总偏移量，生产者独占
+ * 布局 V1 (旧版本文件，总偏移量位于 0，与元数据共享缓存行) 仍然兼容读取
  */
 public class JSharedMemBaseInfo implements AutoCloseable {
-    private static final long BASE_SIZE = 1024 * 1024;
+    private static final System.Logger LOGGER = System.getLogger(JSharedMemBaseInfo.class.getName());
+    // 布局只用到前 256 字节，映射一页即可；旧版本创建的 1MB 文件同样只映射第一页
+    private static final long BASE_SIZE = 4096;
 
     private final String topic;
     private final int msgMaxSize;
     private final int carriage;
+    private final int flags; // 新建 topic 时写入的特性标记
+    private final StoragePolicy storagePolicy;
+    private final Path topicDir; // 控制文件目录 (.base/.reader)
+    private final Path carriageDir; // 车厢文件目录
     private final File file;
     private FileChannel.MapMode mapMode;
 
-    // 偏移量的索引开始位置 long 数据，占8位
-    private static final int INDEX_TOTAL_OFFSET = 0;
+    /**
+     * 缓存行隔离宽度，128 字节可以同时避开相邻缓存行预取 (adjacent-line prefetch)
+     */
+    public static final int CACHE_LINE_PAD = 128;
+    public static final int LAYOUT_V1 = 1;
+    public static final int LAYOUT_V2 = 2;
+    /**
+     * 特性标记: SMG 头部带 8 字节 tag
+     */
+    public static final int FLAG_TAGGED = 1;
+    /**
+     * 特性标记: 按 key (tag) 压实，只保留每个 key 的最新记录
+     */
+    public static final int FLAG_COMPACTED = 2;
+
+    // V1 偏移量的索引开始位置 long 数据，占8位
+    private static final int INDEX_TOTAL_OFFSET_V1 = 0;
     // 车厢容量
     private static final int INDEX_CARRIAGE = 8;
     private static final int INDEX_SEGMENT_SIZE = 16;
-    private static final int NEXT_RENAME = 20;
+    // 布局版本，V1 文件此处为 0
+    private static final int INDEX_LAYOUT_VERSION = 20;
+    // 特性标记，V1 文件此处为 0
+    private static final int INDEX_FLAGS = 24;
+    // V2 偏移量独占一个 128 字节的热数据行
+    private static final int INDEX_TOTAL_OFFSET_V2 = CACHE_LINE_PAD;
+    private static final int NEXT_RENAME = INDEX_TOTAL_OFFSET_V2 + CACHE_LINE_PAD;
 
     private MappedByteBuffer sharedBaseMemory;// 存储队列基础信息
-    private FileChannel channel;
-    private RandomAccessFile accessFile;
+    private JSharedMemRegistry.Mapping mapping; // 进程内共享的映射，关闭时释放
     private boolean mapped; // 是否挂载成功
+    private int indexTotalOffset = INDEX_TOTAL_OFFSET_V2; // 根据布局版本确定
 
     /**
      * 创建基础信息映射，暂时还没写入
      */
     public JSharedMemBaseInfo(String topic, int msgMaxSize, int carriage) {
+        this(topic, msgMaxSize, carriage, StoragePolicy.disk());
+    }
+
+    public JSharedMemBaseInfo(String topic, int msgMaxSize, int carriage, StoragePolicy storagePolicy) {
+        this(topic, msgMaxSize, carriage, storagePolicy, 0);
+    }
+
+    /**
+     * @param flags 特性标记，只在新建 topic 时生效，已有 topic 以文件中的为准
+     */
+    public JSharedMemBaseInfo(String topic, int msgMaxSize, int carriage, StoragePolicy storagePolicy, int flags) {
         this.topic = topic;
         this.msgMaxSize = msgMaxSize;
         this.carriage = carriage;
-        Path path = Dictionary.getAndMakeTopicDir(topic).resolve(topic + ".base");
+        this.flags = flags;
+        this.storagePolicy = storagePolicy;
+        this.topicDir = Dictionary.getAndMakeTopicDir(storagePolicy.getParentDir(), topic);
+        this.carriageDir = Dictionary.getAndMakeTopicDir(storagePolicy.getCarriageParentDir(), topic);
+        Path path = topicDir.resolve(topic + ".base");
         this.file = path.toFile();
     }
 
     /**
-     * 挂载数据
+     * 挂载数据，同一个 .base 文件在进程内只映射一次 (见 {@link JSharedMemRegistry})
      */
     public void mmap(FileChannel.MapMode mode) {
         try {
+            JSharedMemRegistry.Mapping acquired = JSharedMemRegistry.acquire(file.toPath(), mode, BASE_SIZE, false);
+            releaseMapping();
             this.mapMode = mode;
-            this.accessFile = new RandomAccessFile(file, FileChannel.MapMode.READ_WRITE.equals(mode) ? "rw" : "r");
-            this.channel = accessFile.getChannel();
-            this.sharedBaseMemory = this.channel.map(mode, 0, BASE_SIZE);
+            this.mapping = acquired;
+            this.sharedBaseMemory = acquired.buffer();
             this.mapped = true;
+            this.resolveLayout();
         } catch (IOException e) {
             this.mapped = false;
         }
     }
 
+    private void releaseMapping() {
+        if (this.mapping != null) {
+            this.mapping.release();
+            this.mapping = null;
+        }
+    }
+
     public void print() {
         // 打印基础信息
         if (mapped) {
             System.out.println("\n========== 队列基础信息 ==========");
             System.out.println("状态: " + this.mapMode);
             System.out.println("TOPIC: " + this.topic);
+            System.out.println("存储策略: " + this.storagePolicy);
+            System.out.println("布局版本: V" + this.getLayoutVersion());
             System.out.println("当前OFFSET: " + this.readTotalOffset());
             System.out.println("单车厢容量: " + this.readCarriage());
             System.out.println("数据元容量: " + this.readMsgMaxSize() + "B");
+            System.out.println("特性标记: " + this.readFlags());
             System.out.println("===================================");
         }
     }
@@ -77,19 +134,61 @@ public class JSharedMemBaseInfo implements AutoCloseable {
      * 如果修改了存储方式，必须删除或者 override
      */
     public void flush() {
-        if (this.readCarriage() == 0) {
-            this.resetCarriage(carriage);
+        if (this.readCarriage() == 0 && this.readLayoutVersion() == 0) {
+            // 新文件: 必须先写版本与特性标记，再写车厢容量，防止其他进程把它误判为 V1 或读到不完整的标记
+            AtomicVarHandle.setInt(sharedBaseMemory, INDEX_LAYOUT_VERSION, LAYOUT_V2);
+            AtomicVarHandle.setInt(sharedBaseMemory, INDEX_FLAGS, flags);
         }
         if (this.readMsgMaxSize() == 0) {
             this.resetMsgMaxSize(msgMaxSize);
         }
+        if (this.readCarriage() == 0) {
+            this.resetCarriage(carriage);
+        }
+        this.resolveLayout();
+    }
+
+    /**
+     * 根据文件内容确定布局版本
+     * 已初始化(车厢容量不为0)但没有版本号的是旧版 V1 文件，其余一律按 V2 处理
+     */
+    private void resolveLayout() {
+        boolean legacy = this.readLayoutVersion() == 0 && this.readCarriage() != 0;
+        this.indexTotalOffset = legacy ? INDEX_TOTAL_OFFSET_V1 : INDEX_TOTAL_OFFSET_V2;
+    }
+
+    private int readLayoutVersion() {
+        return AtomicVarHandle.getInt(sharedBaseMemory, INDEX_LAYOUT_VERSION);
+    }
+
+    public int readFlags() {
+        return AtomicVarHandle.getInt(sharedBaseMemory, INDEX_FLAGS);
+    }
+
+    /**
+     * SMG 头部是否带 tag
+     */
+    public boolean isTagged() {
+        return (readFlags() & FLAG_TAGGED) != 0;
+    }
+
+    /**
+     * 是否为压实 topic
+     */
+    public boolean isCompacted() {
+        return (readFlags() & FLAG_COMPACTED) != 0;
+    }
+
+    public int getLayoutVersion() {
+        return this.indexTotalOffset == INDEX_TOTAL_OFFSET_V1 ? LAYOUT_V1 : LAYOUT_V2;
     }
 
     /**
      * 获取最新的偏移量
+     * 只作为读取上限使用，数据是否可读由 SMG 状态的 acquire/release 保证
      */
     public long readTotalOffset() {
-        return AtomicVarHandle.getLong(sharedBaseMemory, INDEX_TOTAL_OFFSET);
+        return AtomicVarHandle.getLongAcquire(sharedBaseMemory, indexTotalOffset);
     }
 
     public long readCarriage() {
@@ -108,12 +207,24 @@ public class JSharedMemBaseInfo implements AutoCloseable {
         AtomicVarHandle.setInt(sharedBaseMemory, INDEX_SEGMENT_SIZE, msgMaxSize);
     }
 
+    /**
+     * 单条 lock xadd，不再需要 读取 + CAS 的重试循环
+     */
     public long getAndIncreaseTotalOffset() {
-        while (true) {
-            long cto = readTotalOffset();
-            if (AtomicVarHandle.compareAndSetLong(sharedBaseMemory, INDEX_TOTAL_OFFSET, cto, cto + 1)) {
-                return cto;
+        return AtomicVarHandle.getAndAddLong(sharedBaseMemory, indexTotalOffset, 1);
+    }
+
+    /**
+     * 复制接收端推进总偏移量，只前进不后退
+     * CAS 之前写入的车厢内容对读到新偏移量的读者可见
+     */
+    public void advanceTotalOffset(long totalOffset) {
+        long current = readTotalOffset();
+        while (current < totalOffset) {
+            if (AtomicVarHandle.compareAndSetLong(sharedBaseMemory, indexTotalOffset, current, totalOffset)) {
+                return;
             }
+            current = readTotalOffset();
         }
     }
 
@@ -121,24 +232,36 @@ public class JSharedMemBaseInfo implements AutoCloseable {
         return topic;
     }
 
+    public StoragePolicy getStoragePolicy() {
+        return storagePolicy;
+    }
+
+    public Path getTopicDir() {
+        return topicDir;
+    }
+
+    public Path getCarriageDir() {
+        return carriageDir;
+    }
+
     public boolean isMapped() {
         return mapped;
     }
 
     public void deleteBaseFile() {
         close();
+        JSharedMemRegistry.evict(this.file.toPath());
         this.file.delete();
     }
 
+    /**
+     * 释放共享映射，映射本身在进程内最后一个句柄释放后交给 GC，关闭之后仍然可以读取
+     */
     @Override
     public void close() {
-        try {
-            System.out.println("【BaseInfo】 执行销毁");
-            this.accessFile.close();
-            this.channel.close();
-            this.print();
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (mapped) {
+            LOGGER.log(System.Logger.Level.DEBUG, "【BaseInfo】 执行销毁 TOPIC: {0} OFFSET: {1}", topic, readTotalOffset());
         }
+        releaseMapping();
     }
 }
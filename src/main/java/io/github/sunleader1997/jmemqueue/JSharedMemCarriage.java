@@ -1,13 +1,15 @@
 package io.github.sunleader1997.jmemqueue;
 
+import io.github.sunleader1997.jmemqueue.archive.JCarriageArchive;
 import io.github.sunleader1997.jmemqueue.exceptions.CarriageIndexMatchException;
-import io.github.sunleader1997.jmemqueue.ttl.JCleaner;
 import io.github.sunleader1997.jmemqueue.ttl.TimeToLive;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.nio.MappedByteBuffer;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 
@@ -16,7 +18,9 @@ import java.nio.file.Path;
  * [SGM_SIZE,|SEGMENT_ARRAY]
  */
 public class JSharedMemCarriage implements AutoCloseable {
+    private static final System.Logger LOGGER = System.getLogger(JSharedMemCarriage.class.getName());
     public static final String CARRIAGE_FILE_ENDS = ".carriage";
+    public static final String ARCHIVE_FILE_ENDS = ".archive";
 
     private final JSharedMemBaseInfo jSharedMemBaseInfo;
     private final File carriageFile;
@@ -25,32 +29,41 @@ public class JSharedMemCarriage implements AutoCloseable {
     private final long currentCarriageIndex;
     // 每个仓库的容量
     private final long capacity;
+    // 容量为2的幂时使用移位与掩码代替除法与取模，否则为 -1
+    private final int capacityShift;
+    private final long capacityMask;
     // msg容量
     private final int msgSize;
     // 单个数据元容量
     private final int sgmSize;
+    // SMG 头部是否带 tag
+    private final boolean tagged;
+    // 映射大小，按存储策略对齐 (hugetlbfs 需要整页)
+    private final long mappedSize;
     private boolean exist = true;
 
     private RandomAccessFile accessFile;
     private FileChannel channel;
-    private MappedByteBuffer sharedMemory; // 整个共享内存，存储JSharedMemSegment
-
-    /**
-     * 数据元大小开始位置
-     */
-    private static final int INDEX_SEGMENT_ARRAY = 0;
+    private CarriageMemory sharedMemory; // 整个共享内存，存储JSharedMemSegment
+    private JSharedMemSegment segment; // 享元，车厢为线程独占，所以每个线程复用同一个对象
+    private JCarriageArchive archive; // 车厢已归档时从归档中读取，sharedMemory 只是单个 SMG 的缓冲区
 
     public JSharedMemCarriage(JSharedMemBaseInfo jSharedMemBaseInfo, long offset, TimeToLive timeToLive) {
         this.jSharedMemBaseInfo = jSharedMemBaseInfo;
         this.capacity = jSharedMemBaseInfo.readCarriage();
         this.msgSize = jSharedMemBaseInfo.readMsgMaxSize();
         this.sgmSize = this.msgSize + JSharedMemSegment.CONTENT_OFFSET;
+        this.tagged = jSharedMemBaseInfo.isTagged();
+        this.mappedSize = jSharedMemBaseInfo.getStoragePolicy().alignCarriageSize(capacity * this.sgmSize);
+        boolean powerOfTwo = Long.bitCount(capacity) == 1;
+        this.capacityShift = powerOfTwo ? Long.numberOfTrailingZeros(capacity) : -1;
+        this.capacityMask = powerOfTwo ? capacity - 1 : 0;
         // 链接当前共享内存
-        this.currentCarriageIndex = offset / capacity;
+        this.currentCarriageIndex = carriageIndexOf(offset);
         Path carriagePath = getCarriagePath(this.currentCarriageIndex);
         this.carriageFile = carriagePath.toFile();
         this.timeToLive = timeToLive == null ? JSharedMemQueue.DEF_TTL : timeToLive;
-        System.out.println("【CARRIAGE】LOCATE AT [" + carriagePath + "] OFFSET BEGIN : " + offset);
+        LOGGER.log(System.Logger.Level.DEBUG, "【CARRIAGE】LOCATE AT [{0}] OFFSET BEGIN : {1}", carriagePath, offset);
     }
 
     public JSharedMemCarriage mmap(FileChannel.MapMode mode) {
@@ -60,14 +73,21 @@ public class JSharedMemCarriage implements AutoCloseable {
                 if (this.carriageFile.exists()) {
                     this.accessFile = new RandomAccessFile(this.carriageFile, "r");
                     this.channel = accessFile.getChannel();
-                    this.sharedMemory = channel.map(mode, INDEX_SEGMENT_ARRAY, capacity * this.sgmSize);
+                    this.sharedMemory = CarriageMemory.map(channel, mode, mappedSize);
+                    this.segment = new JSharedMemSegment(sharedMemory, this.msgSize, 0, tagged);
+                } else if (getArchivePath(this.currentCarriageIndex).toFile().exists()) {
+                    // 已归档: 把记录解压到单个 SMG 的缓冲区中，对读者透明
+                    this.archive = JCarriageArchive.open(getArchivePath(this.currentCarriageIndex));
+                    this.sharedMemory = CarriageMemory.wrap(ByteBuffer.allocateDirect(this.sgmSize));
+                    this.segment = new JSharedMemSegment(sharedMemory, this.msgSize, 0, tagged);
                 } else {
                     this.exist = false;
                 }
             } else { // write 模式，以下会自动创建
                 this.accessFile = new RandomAccessFile(this.carriageFile, "rw");
                 this.channel = accessFile.getChannel();
-                this.sharedMemory = channel.map(mode, INDEX_SEGMENT_ARRAY, capacity * this.sgmSize);
+                this.sharedMemory = CarriageMemory.map(channel, mode, mappedSize);
+                this.segment = new JSharedMemSegment(sharedMemory, this.msgSize, 0, tagged);
                 // 生产模式下，更新lastmodified时间
                 this.carriageFile.setLastModified(System.currentTimeMillis());
             }
@@ -82,19 +102,27 @@ public class JSharedMemCarriage implements AutoCloseable {
     }
 
     public Path getCarriagePath(long carriageIndex) {
-        return Dictionary.getTopicDir(this.jSharedMemBaseInfo.getTopic()).resolve(getCarriageFileName(carriageIndex));
+        return this.jSharedMemBaseInfo.getCarriageDir().resolve(getCarriageFileName(carriageIndex));
     }
 
     public String getCarriageFileName(long carriageIndex) {
         return carriageIndex + CARRIAGE_FILE_ENDS;
     }
 
+    public Path getArchivePath(long carriageIndex) {
+        return this.jSharedMemBaseInfo.getCarriageDir().resolve(carriageIndex + ARCHIVE_FILE_ENDS);
+    }
+
+    public boolean isArchived() {
+        return archive != null;
+    }
+
     private File[] listFiles(FileFilter fileFilter) {
         Path parent = getCarriagePath(0).getParent();
         return parent.toFile().listFiles(pathname -> {
             boolean isDirectory = pathname.isDirectory();
             if (isDirectory) return false;
-            boolean matched = pathname.getName().endsWith(CARRIAGE_FILE_ENDS);
+            boolean matched = pathname.getName().endsWith(CARRIAGE_FILE_ENDS) || pathname.getName().endsWith(ARCHIVE_FILE_ENDS);
             if (matched) {
                 return fileFilter.accept(pathname);
             }
@@ -103,12 +131,14 @@ public class JSharedMemCarriage implements AutoCloseable {
     }
 
     public void clean() {
-        JCleaner.clean(this.sharedMemory);
+        if (this.sharedMemory != null) {
+            this.sharedMemory.close();
+        }
         File[] files = listFiles((pathname) -> true);
         // 如果文件被消费者占用是无法成功删除的，所以每次都得遍历一遍
         for (File file : files) {
             boolean remove = file.delete();
-            System.out.println("CLEAN DAT " + file.getName() + " STATUS: " + remove);
+            LOGGER.log(System.Logger.Level.INFO, "CLEAN DAT {0} STATUS: {1}", file.getName(), remove);
         }
     }
 
@@ -120,20 +150,61 @@ public class JSharedMemCarriage implements AutoCloseable {
         // 如果文件被消费者占用是无法成功删除的，所以每次都得遍历一遍
         for (File file : files) {
             boolean remove = file.delete();
-            System.out.println("CLEAN DAT " + file.getName() + " STATUS: " + remove);
+            LOGGER.log(System.Logger.Level.INFO, "CLEAN DAT {0} STATUS: {1}", file.getName(), remove);
         }
     }
 
+    /**
+     * 返回的 SMG 是当前车厢的享元，下一次调用 getSegment 之前有效
+     */
     public JSharedMemSegment getSegment(long offset) {
         int compare = compareTo(offset);
         if (compare == 0) { // 直接取出数据块
-            int index = (int) (offset % capacity);
-            return new JSharedMemSegment(sharedMemory, this.msgSize, index);
+            if (archive != null) {
+                try {
+                    archive.load(offset, segment);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return segment;
+            }
+            return segment.wrap(slotIndexOf(offset));
         } else {
             throw new CarriageIndexMatchException("【车厢】当前车厢已过时" + currentCarriageIndex);
         }
     }
 
+    /**
+     * 当前车厢之后第一个 offset
+     */
+    public long getEndOffset() {
+        return (currentCarriageIndex + 1) * capacity;
+    }
+
+    /**
+     * 将 [fromOffset, toOffset) 对应的 SMG 刷新到磁盘，两个 offset 必须位于当前车厢
+     */
+    public void force(long fromOffset, long toOffset) {
+        if (toOffset <= fromOffset) return;
+        long begin = (long) slotIndexOf(fromOffset) * sgmSize;
+        long end = (long) (slotIndexOf(toOffset - 1) + 1) * sgmSize;
+        sharedMemory.force(begin, end - begin);
+    }
+
+    /**
+     * offset 对应的 SMG 在车厢文件中的字节位置，offset 必须位于当前车厢
+     */
+    public long byteOffsetOf(long offset) {
+        return (long) slotIndexOf(offset) * sgmSize;
+    }
+
+    /**
+     * 车厢文件的映射大小
+     */
+    public long getMappedSize() {
+        return mappedSize;
+    }
+
     public long getCarriageIndex() {
         return currentCarriageIndex;
     }
@@ -145,10 +216,18 @@ public class JSharedMemCarriage implements AutoCloseable {
      * @return -1 当前车厢已经旧了，需要创建新的 0 匹配 1 提供的offset落后了
      */
     public int compareTo(long offset) {
-        long carriageIndex = offset / capacity;
+        long carriageIndex = carriageIndexOf(offset);
         return Long.compare(currentCarriageIndex, carriageIndex);
     }
 
+    private long carriageIndexOf(long offset) {
+        return capacityShift >= 0 ? offset >>> capacityShift : offset / capacity;
+    }
+
+    private int slotIndexOf(long offset) {
+        return (int) (capacityShift >= 0 ? offset & capacityMask : offset % capacity);
+    }
+
     public File getCarriageFile() {
         return this.carriageFile;
     }
@@ -156,7 +235,7 @@ public class JSharedMemCarriage implements AutoCloseable {
     @Override
     public void close() {
         try {
-            System.out.println("【Carriage】 执行销毁");
+            LOGGER.log(System.Logger.Level.DEBUG, "【Carriage】 执行销毁 {0}", carriageFile.getName());
             if (this.accessFile != null) {
                 this.accessFile.close();
             }
@@ -164,7 +243,10 @@ public class JSharedMemCarriage implements AutoCloseable {
                 this.channel.close();
             }
             if (this.sharedMemory != null) {
-                JCleaner.clean(this.sharedMemory);
+                this.sharedMemory.close();
+            }
+            if (this.archive != null) {
+                this.archive.close();
             }
             this.cleanByTTL();
         } catch (Exception e) {
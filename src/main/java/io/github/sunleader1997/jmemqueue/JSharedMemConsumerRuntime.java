@@ -0,0 +1,99 @@
+package io.github.sunleader1997.jmemqueue;
+
+import io.github.sunleader1997.jmemqueue.wait.WaitStrategy;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 消费者运行时: 每个消费循环运行在独立的线程上，JDK 21+ 为虚拟线程
+ * 队列为空时按等待策略退避，默认 {@link WaitStrategy#backoff()}，空闲 topic 几乎不占用 CPU
+ */
+public class JSharedMemConsumerRuntime implements AutoCloseable {
+    public static final int DEF_BATCH = 64;
+
+    private final WaitStrategy waitStrategy;
+    private final int batch;
+    private final List<Thread> threads = new CopyOnWriteArrayList<>();
+    private volatile boolean running = true;
+
+    public JSharedMemConsumerRuntime() {
+        this(WaitStrategy.backoff(), DEF_BATCH);
+    }
+
+    /**
+     * @param waitStrategy 所有消费循环共用，必须是无状态的
+     * @param batch        每次 CAS 领取的最大 offset 数量
+     */
+    public JSharedMemConsumerRuntime(WaitStrategy waitStrategy, int batch) {
+        this.waitStrategy = waitStrategy;
+        this.batch = Math.max(1, batch);
+    }
+
+    public void start(JSharedMemReader reader, JSharedMemReader.SegmentHandler handler) {
+        start(reader, 1, handler);
+    }
+
+    /**
+     * 为 reader 启动 concurrency 个消费循环，循环之间在同一个 group 内竞争 offset
+     * handler 收到的 SMG 是享元，只在回调期间有效；handler 抛出的异常只打印，不会终止循环
+     */
+    public void start(JSharedMemReader reader, int concurrency, JSharedMemReader.SegmentHandler handler) {
+        if (!running) {
+            throw new IllegalStateException("运行时已关闭");
+        }
+        for (int i = 0; i < concurrency; i++) {
+            Thread thread = ConsumerThreads.newThread("JSMQ-consumer-" + reader.getTopic() + "-" + i, () -> consume(reader, handler));
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    private void consume(JSharedMemReader reader, JSharedMemReader.SegmentHandler handler) {
+        int idle = 0;
+        try {
+            while (running) {
+                int count;
+                try {
+                    count = reader.poll(batch, handler);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    count = 1; // 出错的消息已经消费，不进入退避
+                }
+                if (count > 0) {
+                    idle = 0;
+                } else {
+                    waitStrategy.idle(idle);
+                    if (idle < Integer.MAX_VALUE) idle++;
+                }
+            }
+        } finally {
+            reader.detach();
+        }
+    }
+
+    public boolean isVirtual() {
+        return ConsumerThreads.isVirtual();
+    }
+
+    /**
+     * 停止所有消费循环并等待退出，reader 由调用方关闭
+     */
+    @Override
+    public void close() {
+        running = false;
+        for (Thread thread : threads) {
+            LockSupport.unpark(thread);
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        threads.clear();
+    }
+}
@@ -0,0 +1,237 @@
+package io.github.sunleader1997.jmemqueue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 延迟消息调度: 把延迟日志中到期的消息放回主 topic
+ * 延迟日志是带 tag 的内部 topic ${topic}-delay，tag 为到期时间 (毫秒)，由 {@link JSharedMemProducer#enqueueDelayed} 写入
+ * 调度线程顺序扫描延迟日志，把 (到期时间, offset) 放入分层时间轮，到期时写入主 topic，再把日志中的 SMG 标记为已废弃
+ * 低水位 (最早的还有未到期消息的车厢) 记录在延迟日志的 group 文件中，重启后从低水位重新扫描，跳过已废弃的 SMG
+ * 写入主 topic 之后、标记废弃之前崩溃的消息会在重启后再投递一次 (至少一次)
+ * 同一个 topic 只能有一个调度器 (可以在任意一个进程中)，由延迟日志目录下 scheduler.lock 的文件锁保证，进程退出时自动释放
+ */
+public class JSharedMemDelayScheduler implements AutoCloseable {
+    private static final System.Logger LOGGER = System.getLogger(JSharedMemDelayScheduler.class.getName());
+    public static final String DELAY_SUFFIX = "-delay";
+    public static final String DELAY_GROUP = "__delay__";
+    public static final long DEF_TICK_MS = 1;
+    public static final String LOCK_FILE = "scheduler.lock";
+    public static final long MAX_DELAY_MS = JSharedMemQueue.DEF_TTL.toMillis(); // 延迟日志车厢按默认 TTL 清理
+    private static final int CARRIAGE_CACHE_SIZE = 8;
+
+    private final JSharedMemBaseInfo delayBaseInfo;
+    private final JSharedMemReader watermarkReader;
+    private final JSharedMemProducer producer;
+    private final FileLock schedulerLock;
+    private final TimingWheel timingWheel;
+    private final long tickNanos;
+    private final long capacity;
+    private final Thread thread;
+    // 每个车厢中还在时间轮里的消息数量，第一个车厢决定低水位
+    private final TreeMap<Long, Integer> pendingCarriages = new TreeMap<>();
+    // 最近使用的延迟日志车厢 (读写模式，用于标记废弃)
+    private final Map<Long, JSharedMemCarriage> carriages = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, JSharedMemCarriage> eldest) {
+            if (size() > CARRIAGE_CACHE_SIZE) {
+                eldest.getValue().close();
+                return true;
+            }
+            return false;
+        }
+    };
+    private volatile boolean running = true;
+    private long cursor; // 下一个要扫描的延迟日志 offset，只由调度线程访问
+    private volatile long released; // 只由调度线程写入
+
+    JSharedMemDelayScheduler(JSharedMemBaseInfo delayBaseInfo, JSharedMemReader watermarkReader, JSharedMemProducer producer,
+                             FileLock schedulerLock, long tickMs) {
+        this.delayBaseInfo = delayBaseInfo;
+        this.schedulerLock = schedulerLock;
+        this.delayBaseInfo.mmap(FileChannel.MapMode.READ_WRITE);
+        this.delayBaseInfo.flush();
+        this.watermarkReader = watermarkReader;
+        this.producer = producer;
+        this.capacity = delayBaseInfo.readCarriage();
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        this.timingWheel = new TimingWheel(tickMs, System.currentTimeMillis());
+        this.cursor = watermarkReader.getReaderOffset();
+        this.thread = new Thread(this::run, "JSMQ-delay-" + delayBaseInfo.getTopic());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * 获取延迟日志的调度器锁，已经有调度器 (本进程或其他进程) 时抛出 IllegalStateException
+     */
+    static FileLock lock(JSharedMemBaseInfo delayBaseInfo) {
+        Path path = delayBaseInfo.getTopicDir().resolve(LOCK_FILE);
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock lock = channel.tryLock();
+            if (lock != null) {
+                return lock;
+            }
+        } catch (OverlappingFileLockException e) {
+            // 本进程已经持有
+        } catch (IOException e) {
+            closeChannel(channel);
+            throw new IllegalStateException("延迟调度器锁获取失败: " + path, e);
+        }
+        closeChannel(channel);
+        throw new IllegalStateException("TOPIC " + delayBaseInfo.getTopic() + " 已经有延迟调度器在运行");
+    }
+
+    private static void closeChannel(FileChannel channel) {
+        if (channel == null) return;
+        try {
+            channel.close(); // 同时释放锁
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                try {
+                    scan();
+                    timingWheel.advance(System.currentTimeMillis(), this::release);
+                    commitWatermark();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                LockSupport.parkNanos(this, tickNanos);
+            }
+        } finally {
+            for (JSharedMemCarriage carriage : carriages.values()) {
+                carriage.close();
+            }
+            carriages.clear();
+        }
+    }
+
+    /**
+     * 把新写入延迟日志的消息放入时间轮，遇到还没写完的 SMG 时停下，下一轮继续
+     */
+    private void scan() {
+        long totalOffset = delayBaseInfo.readTotalOffset();
+        while (cursor < totalOffset) {
+            JSharedMemCarriage carriage = carriage(cursor);
+            if (carriage == null) {
+                if (cursor / capacity == (totalOffset - 1) / capacity) return; // 生产者还没有创建车厢文件
+                cursor = (cursor / capacity + 1) * capacity; // 车厢已被清理
+                continue;
+            }
+            JSharedMemSegment segment = carriage.getSegment(cursor);
+            int state = segment.getStateAcquire();
+            if (state == JSharedMemSegment.STATE_READABLE) {
+                timingWheel.add(segment.getTag(), cursor);
+                pendingCarriages.merge(cursor / capacity, 1, Integer::sum);
+            } else if (state != JSharedMemSegment.STATE_DISCARDED) {
+                return; // 生产者已经领取 offset 但还没有写完
+            }
+            cursor++;
+        }
+    }
+
+    /**
+     * 时间轮到期回调: 写入主 topic，再把延迟日志中的 SMG 标记为已废弃，重启后不会再次投递
+     * 写入失败的消息同样标记为已废弃并记录日志，不会阻塞低水位
+     */
+    private void release(long dueMs, long offset) {
+        long carriageIndex = offset / capacity;
+        try {
+            JSharedMemCarriage carriage = carriage(offset);
+            if (carriage != null) {
+                JSharedMemSegment segment = carriage.getSegment(offset);
+                if (segment.isReadable()) {
+                    try {
+                        producer.enqueue(segment.readContent());
+                        released = released + 1;
+                    } catch (RuntimeException e) {
+                        LOGGER.log(System.Logger.Level.ERROR, "延迟消息写入 TOPIC " + delayBaseInfo.getTopic() + " 失败，丢弃 offset " + offset, e);
+                    }
+                    segment.setStateRelease(JSharedMemSegment.STATE_DISCARDED);
+                }
+            }
+        } finally {
+            releasePending(carriageIndex);
+        }
+    }
+
+    private void releasePending(long carriageIndex) {
+        Integer pending = pendingCarriages.get(carriageIndex);
+        if (pending != null) {
+            if (pending <= 1) {
+                pendingCarriages.remove(carriageIndex);
+            } else {
+                pendingCarriages.put(carriageIndex, pending - 1);
+            }
+        }
+    }
+
+    private void commitWatermark() {
+        long watermark = pendingCarriages.isEmpty() ? cursor : Math.min(cursor, pendingCarriages.firstKey() * capacity);
+        watermarkReader.commit(watermark);
+    }
+
+    /**
+     * @return 车厢文件不存在时返回 null (读写模式挂载会创建文件，所以先检查)
+     */
+    private JSharedMemCarriage carriage(long offset) {
+        long carriageIndex = offset / capacity;
+        JSharedMemCarriage carriage = carriages.get(carriageIndex);
+        if (carriage != null) return carriage;
+        carriage = new JSharedMemCarriage(delayBaseInfo, offset, null);
+        if (!carriage.getCarriageFile().exists()) {
+            return null;
+        }
+        carriage.mmap(FileChannel.MapMode.READ_WRITE);
+        if (!carriage.exist()) {
+            return null;
+        }
+        carriages.put(carriageIndex, carriage);
+        return carriage;
+    }
+
+    /**
+     * 时间轮中等待到期的消息数量，只用于监控
+     */
+    public int getScheduledCount() {
+        return timingWheel.size();
+    }
+
+    /**
+     * 已经放回主 topic 的消息数量，只用于监控
+     */
+    public long getReleasedCount() {
+        return released;
+    }
+
+    @Override
+    public void close() throws Exception {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        watermarkReader.close();
+        producer.close();
+        delayBaseInfo.close();
+        closeChannel(schedulerLock.channel());
+    }
+}
@@ -0,0 +1,221 @@
+package io.github.sunleader1997.jmemqueue;
+
+import io.github.sunleader1997.jmemqueue.wait.WaitStrategy;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * 按 key 保序的并行分发器
+ * 一个领取线程顺序读取 group，按 key 哈希分发到 N 条通道 (SPSC 环形队列)，每条通道由一个工作线程处理
+ * 同一个 key 总是进入同一条通道，所以同一个 key 的消息按 offset 顺序处理，不需要对 topic 分区
+ * group offset 只在所有通道都处理完之前的消息后才按顺序提交，重启后从已提交的位置继续 (至少一次)
+ * 同一个 group 只能有一个分发器，不能与其他 dequeue 混用
+ */
+public class JSharedMemDispatcher implements AutoCloseable {
+    private static final System.Logger LOGGER = System.getLogger(JSharedMemDispatcher.class.getName());
+    public static final int DEF_RING_SIZE = 1024;
+
+    private final JSharedMemReader reader;
+    private final ToLongFunction<JSharedMemSegment> keyFunction;
+    private final Handler handler;
+    private final WaitStrategy waitStrategy;
+    private final Lane[] lanes;
+    private final Thread claimant;
+    private volatile boolean running = true;
+    private volatile boolean lanesRunning = true;
+    private boolean ownsReader; // 由 JSharedMemQueue 创建的 reader 随分发器一起关闭
+    // 以下字段只由领取线程访问
+    private long cursor; // 下一个要读取的 offset，之前的 offset 都已经分发或跳过
+    private long committed;
+    private long currentOffset;
+
+    /**
+     * @param keyFunction 从 SMG 中取出 key，只在领取线程上调用；带 tag 的 topic 通常为 {@link JSharedMemSegment#getTag()}
+     *                    抛出的异常记录日志后跳过该消息，领取线程继续
+     * @param handler     在通道线程上调用，抛出的异常只打印，消息视为已处理
+     */
+    public JSharedMemDispatcher(JSharedMemReader reader, int laneCount, ToLongFunction<JSharedMemSegment> keyFunction, Handler handler) {
+        this(reader, laneCount, keyFunction, handler, WaitStrategy.backoff(), DEF_RING_SIZE);
+    }
+
+    public JSharedMemDispatcher(JSharedMemReader reader, int laneCount, ToLongFunction<JSharedMemSegment> keyFunction, Handler handler,
+                                WaitStrategy waitStrategy, int ringSize) {
+        if (laneCount < 1) {
+            throw new IllegalArgumentException("通道数必须大于0: " + laneCount);
+        }
+        this.reader = reader;
+        this.keyFunction = keyFunction;
+        this.handler = handler;
+        this.waitStrategy = waitStrategy;
+        this.cursor = reader.getReaderOffset();
+        this.committed = cursor;
+        this.lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(ringSize, cursor - 1);
+            lanes[i].thread = ConsumerThreads.newThread("JSMQ-lane-" + reader.getTopic() + "-" + i, lanes[i]::run);
+            lanes[i].thread.start();
+        }
+        this.claimant = ConsumerThreads.newThread("JSMQ-dispatcher-" + reader.getTopic(), this::claim);
+        this.claimant.start();
+    }
+
+    private void claim() {
+        int idle = 0;
+        try {
+            while (running) {
+                long limit = reader.getTotalOffset();
+                boolean progressed = false;
+                while (cursor < limit && running) {
+                    currentOffset = cursor;
+                    int result = reader.readAt(cursor, this::dispatch);
+                    if (result == JSharedMemReader.READ_PENDING) break; // 生产者还没有写完，下一轮重试
+                    cursor++;
+                    progressed = true;
+                }
+                commit();
+                if (progressed) {
+                    idle = 0;
+                } else {
+                    waitStrategy.idle(idle);
+                    if (idle < Integer.MAX_VALUE) idle++;
+                }
+            }
+        } finally {
+            reader.detach();
+        }
+    }
+
+    /**
+     * 复制内容后放入通道，通道已满时等待 (背压)
+     */
+    private void dispatch(JSharedMemSegment segment) {
+        long key;
+        try {
+            key = keyFunction.applyAsLong(segment);
+        } catch (RuntimeException e) { // 不能让领取线程退出，否则 group offset 不再前进
+            LOGGER.log(System.Logger.Level.ERROR, "TOPIC " + reader.getTopic() + " OFFSET " + currentOffset + " 取 key 失败，跳过", e);
+            return;
+        }
+        Lane lane = lanes[laneOf(key, lanes.length)];
+        Message message = new Message(currentOffset, key, segment.readContent());
+        int idle = 0;
+        while (!lane.ring.offer(message)) {
+            commit();
+            waitStrategy.idle(idle);
+            if (idle < Integer.MAX_VALUE) idle++;
+        }
+        lane.dispatched = currentOffset;
+    }
+
+    static int laneOf(long key, int laneCount) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) Math.floorMod(h ^ (h >>> 32), (long) laneCount);
+    }
+
+    /**
+     * 提交水位线: cursor 之前、且每条还有未处理消息的通道都已经处理过的 offset
+     * 通道内 offset 递增，通道 L 中 {@code <= completed(L)} 的消息都已处理，所以 min(completed(L) + 1) 之前的消息都已处理
+     */
+    private void commit() {
+        long watermark = cursor;
+        for (Lane lane : lanes) {
+            long completed = lane.completed.getAcquire();
+            if (completed < lane.dispatched) { // 还有未处理的消息
+                watermark = Math.min(watermark, completed + 1);
+            }
+        }
+        if (watermark > committed) {
+            reader.commit(watermark);
+            committed = watermark;
+        }
+    }
+
+    JSharedMemDispatcher ownReader() {
+        this.ownsReader = true;
+        return this;
+    }
+
+    /**
+     * 已经提交的 group offset
+     */
+    public long getCommittedOffset() {
+        return reader.getReaderOffset();
+    }
+
+    /**
+     * 停止领取，等待通道处理完已分发的消息后提交
+     */
+    @Override
+    public void close() {
+        running = false;
+        join(claimant);
+        lanesRunning = false;
+        for (Lane lane : lanes) {
+            join(lane.thread);
+        }
+        reader.commit(cursor);
+        if (ownsReader) {
+            reader.close();
+        }
+    }
+
+    private static void join(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @FunctionalInterface
+    public interface Handler {
+        void handle(long key, byte[] data);
+    }
+
+    private static final class Message {
+        private final long offset;
+        private final long key;
+        private final byte[] data;
+
+        private Message(long offset, long key, byte[] data) {
+            this.offset = offset;
+            this.key = key;
+            this.data = data;
+        }
+    }
+
+    private final class Lane {
+        private final SpscRing<Message> ring;
+        // 最后处理完的 offset (通道线程写，release)
+        private final AtomicLong completed;
+        // 最后分发的 offset (领取线程独占)
+        private long dispatched;
+        private Thread thread;
+
+        private Lane(int ringSize, long initial) {
+            this.ring = new SpscRing<>(ringSize);
+            this.completed = new AtomicLong(initial);
+            this.dispatched = initial;
+        }
+
+        private void run() {
+            int idle = 0;
+            while (lanesRunning || !ring.isEmpty()) {
+                Message message = ring.poll();
+                if (message == null) {
+                    waitStrategy.idle(idle);
+                    if (idle < Integer.MAX_VALUE) idle++;
+                    continue;
+                }
+                try {
+                    handler.handle(message.key, message.data);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                completed.setRelease(message.offset);
+                idle = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package io.github.sunleader1997.jmemqueue;
+
+import io.github.sunleader1997.jmemqueue.enums.Durability;
+
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 刷盘线程
+ * 同一个 JSharedMemQueue 的所有生产者共用一个，把多个生产者的写入合并为一次 msync
+ * 每轮扫描到总偏移量，已写完的 SMG 刷盘后结束对应的请求；被领取但还没写完的 SMG 记为空洞，之后的请求不受影响
+ * 以读写模式映射已经存在的车厢，只读 fd 上的映射不是共享可写映射，msync 不会把脏页写回磁盘
+ * 车厢文件不存在时跳过，不会创建车厢文件
+ * 空洞超过 {@link #STALL_TIMEOUT_MS} 仍没有写完 (生产者崩溃) 时不再挡住刷盘水位
+ */
+public class JSharedMemFlusher implements AutoCloseable {
+    private static final System.Logger LOGGER = System.getLogger(JSharedMemFlusher.class.getName());
+    public static final long STALL_TIMEOUT_MS = 10_000;
+    private static final int CARRIAGE_CACHE_SIZE = 4;
+
+    private final JSharedMemBaseInfo jSharedMemBaseInfo;
+    private final Durability durability;
+    private final long intervalNanos;
+    private final Thread thread;
+    // 等待刷盘完成的 enqueueDurable 请求
+    private final ConcurrentLinkedQueue<Pending> pendingQueue = new ConcurrentLinkedQueue<>();
+    // 超时的空洞，生产者之后才写完并登记时单独刷盘
+    private final Set<Long> abandoned = ConcurrentHashMap.newKeySet();
+
+    // 以下字段由刷盘线程独占
+    private final TreeMap<Long, CompletableFuture<Long>> waiting = new TreeMap<>();
+    private final TreeMap<Long, Long> holes = new TreeMap<>(); // 还没写完的 offset -> 第一次发现的时间 (纳秒)
+    private final Map<Long, JSharedMemCarriage> carriages = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, JSharedMemCarriage> eldest) {
+            if (size() > CARRIAGE_CACHE_SIZE) {
+                eldest.getValue().close();
+                return true;
+            }
+            return false;
+        }
+    };
+    private long scannedOffset; // [flushedOffset, scannedOffset) 中除空洞外都已经刷盘
+    private volatile long flushedOffset; // 小于此 offset 的数据都已经刷盘 (超时的空洞除外)
+    private volatile boolean running = true;
+    private int refCount;
+
+    public JSharedMemFlusher(JSharedMemBaseInfo jSharedMemBaseInfo, Durability durability, long interval, TimeUnit timeUnit) {
+        this.jSharedMemBaseInfo = jSharedMemBaseInfo;
+        this.jSharedMemBaseInfo.mmap(FileChannel.MapMode.READ_ONLY);
+        this.durability = durability;
+        this.intervalNanos = timeUnit.toNanos(interval);
+        this.scannedOffset = jSharedMemBaseInfo.readTotalOffset();
+        this.flushedOffset = scannedOffset;
+        this.thread = new Thread(this::run, "JSMQ-flusher-" + jSharedMemBaseInfo.getTopic());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * 登记一个等待刷盘的 offset，刷盘线程已经停止时返回失败的 future
+     */
+    public CompletableFuture<Long> register(long offset) {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        if (!running) {
+            future.completeExceptionally(stopped());
+            return future;
+        }
+        if (offset < flushedOffset && !abandoned.contains(offset)) {
+            future.complete(offset);
+            return future;
+        }
+        pendingQueue.offer(new Pending(offset, future));
+        if (!running) { // 与 close 并发: 刷盘线程可能已经最后一次处理过队列
+            failPending();
+            return future;
+        }
+        if (durability == Durability.SYNC_BATCH) {
+            LockSupport.unpark(thread); // 组提交: 立即开始下一轮，刷盘期间到达的请求合并到再下一轮
+        }
+        return future;
+    }
+
+    public long getFlushedOffset() {
+        return flushedOffset;
+    }
+
+    /**
+     * @return false 表示刷盘线程已经停止，需要重新创建
+     */
+    synchronized boolean retain() {
+        if (!running) return false;
+        refCount++;
+        return true;
+    }
+
+    /**
+     * 最后一个生产者关闭时停止刷盘线程
+     */
+    synchronized void release() {
+        if (--refCount <= 0) {
+            close();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            boolean progressed = false;
+            try {
+                progressed = flush();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            // SYNC_BATCH 下有进展就立即开始下一轮，没有进展时等待 register 唤醒或超时
+            if (durability == Durability.PERIODIC || !progressed) {
+                LockSupport.parkNanos(this, intervalNanos);
+            }
+        }
+        try {
+            flush(); // 退出前最后一次刷盘
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        for (JSharedMemCarriage carriage : carriages.values()) {
+            carriage.close();
+        }
+        carriages.clear();
+        jSharedMemBaseInfo.close();
+    }
+
+    /**
+     * 刷盘新写完的 SMG，并结束被覆盖的请求
+     *
+     * @return 是否有进展
+     */
+    private boolean flush() {
+        long now = System.nanoTime();
+        long stallTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(STALL_TIMEOUT_MS);
+        boolean progressed = false;
+        // 之前的空洞
+        Iterator<Map.Entry<Long, Long>> iterator = holes.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Long> hole = iterator.next();
+            long offset = hole.getKey();
+            if (forceIfPublished(offset)) {
+                iterator.remove();
+                progressed = true;
+            } else if (now - hole.getValue() > stallTimeoutNanos) {
+                abandoned.add(offset); // 先于水位前进，register 看到新的水位时一定能看到它
+                iterator.remove();
+                progressed = true;
+                LOGGER.log(System.Logger.Level.WARNING, "【FLUSHER】TOPIC {0} OFFSET {1} 超过 {2}ms 没有写完，不再等待",
+                        jSharedMemBaseInfo.getTopic(), offset, STALL_TIMEOUT_MS);
+            }
+        }
+        // 新写入的范围，按连续写完的区间刷盘
+        long totalOffset = jSharedMemBaseInfo.readTotalOffset();
+        long from = scannedOffset;
+        while (from < totalOffset) {
+            JSharedMemCarriage carriage = getCarriage(from);
+            if (carriage == null) break; // 生产者还没有创建车厢文件，下一轮继续
+            long end = Math.min(totalOffset, carriage.getEndOffset());
+            long runStart = from;
+            for (long offset = from; offset < end; offset++) {
+                if (!carriage.getSegment(offset).isPublished()) {
+                    carriage.force(runStart, offset);
+                    holes.put(offset, now);
+                    runStart = offset + 1;
+                }
+            }
+            carriage.force(runStart, end);
+            from = end;
+        }
+        if (from > scannedOffset) {
+            scannedOffset = from;
+            progressed = true;
+        }
+        flushedOffset = holes.isEmpty() ? scannedOffset : holes.firstKey();
+        completeFlushed();
+        return progressed;
+    }
+
+    /**
+     * 单个 SMG 已经写完时刷盘
+     */
+    private boolean forceIfPublished(long offset) {
+        JSharedMemCarriage carriage = getCarriage(offset);
+        if (carriage == null || !carriage.getSegment(offset).isPublished()) {
+            return false;
+        }
+        carriage.force(offset, offset + 1);
+        return true;
+    }
+
+    private void completeFlushed() {
+        Pending pending;
+        while ((pending = pendingQueue.poll()) != null) {
+            waiting.put(pending.offset(), pending.future());
+        }
+        Iterator<Map.Entry<Long, CompletableFuture<Long>>> iterator = waiting.headMap(scannedOffset, false).entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, CompletableFuture<Long>> entry = iterator.next();
+            long offset = entry.getKey();
+            if (holes.containsKey(offset)) continue;
+            if (abandoned.contains(offset)) {
+                if (!forceIfPublished(offset)) continue;
+                abandoned.remove(offset);
+            }
+            entry.getValue().complete(offset);
+            iterator.remove();
+        }
+    }
+
+    /**
+     * @return 车厢文件不存在时返回 null
+     */
+    private JSharedMemCarriage getCarriage(long offset) {
+        long carriageIndex = offset / jSharedMemBaseInfo.readCarriage();
+        JSharedMemCarriage carriage = carriages.get(carriageIndex);
+        if (carriage != null) return carriage;
+        carriage = new JSharedMemCarriage(jSharedMemBaseInfo, offset, null);
+        if (!carriage.getCarriageFile().exists()) { // 读写模式挂载会创建文件，所以先检查；已归档的车厢在归档时已经落盘
+            return null;
+        }
+        carriage.mmap(FileChannel.MapMode.READ_WRITE);
+        if (!carriage.exist()) {
+            carriage.close();
+            return null;
+        }
+        carriages.put(carriageIndex, carriage);
+        return carriage;
+    }
+
+    private static IllegalStateException stopped() {
+        return new IllegalStateException("刷盘线程已经停止");
+    }
+
+    private void failPending() {
+        Pending pending;
+        while ((pending = pendingQueue.poll()) != null) {
+            pending.future().completeExceptionally(stopped());
+        }
+    }
+
+    /**
+     * 停止刷盘线程，退出前最后一次刷盘，之后仍未完成的请求以异常结束
+     */
+    @Override
+    public void close() {
+        if (!running) return;
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (CompletableFuture<Long> future : waiting.values()) {
+            future.completeExceptionally(stopped());
+        }
+        waiting.clear();
+        failPending();
+    }
+
+    private record Pending(long offset, CompletableFuture<Long> future) {
+    }
+}
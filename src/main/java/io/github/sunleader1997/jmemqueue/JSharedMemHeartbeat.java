@@ -0,0 +1,49 @@
+package io.github.sunleader1997.jmemqueue;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 进程级心跳线程: 定期为本进程的所有 reader 写入心跳与计数，并驱逐所在 group 中失效的成员
+ * 第一个 reader 加入时启动，守护线程
+ */
+final class JSharedMemHeartbeat {
+    public static final long HEARTBEAT_INTERVAL_MS = 1000;
+    public static final long MEMBER_TIMEOUT_MS = 10_000;
+
+    private static final Set<JSharedMemReader> READERS = ConcurrentHashMap.newKeySet();
+    private static Thread thread;
+
+    private JSharedMemHeartbeat() {
+    }
+
+    static synchronized void register(JSharedMemReader reader) {
+        READERS.add(reader);
+        if (thread == null) {
+            thread = new Thread(JSharedMemHeartbeat::run, "JSMQ-heartbeat");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    static void unregister(JSharedMemReader reader) {
+        READERS.remove(reader);
+    }
+
+    private static void run() {
+        while (true) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(HEARTBEAT_INTERVAL_MS));
+            long now = System.currentTimeMillis();
+            for (JSharedMemReader reader : READERS) {
+                try {
+                    reader.heartbeat(now);
+                    reader.evictStaleMembers(MEMBER_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } catch (Exception e) { // reader 正在关闭
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package io.github.sunleader1997.jmemqueue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * 压实 topic 的 key 索引: key -> 最新 offset
+ * 开放寻址 (线性探测) 哈希表，位于映射文件中，多个进程共享，重启后仍然有效
+ * <pre>
+ * [HEADER 128B] magic(4) slotCount(4) version(4 @8) ... keyCount(8 @64) key 为 0 的 offset+1(8 @72) 已确认位置(8 @80)
+ * [SLOT 16B]*   key(8) offset+1(8)   key: 0 空闲; offset+1: 0 还没有写入
+ * </pre>
+ * 先 CAS key 占用槽位再 CAS offset，写入者在两步之间崩溃只会留下没有 offset 的 key，之后同一个 key 的写入会补上，
+ * 其他 key 的探测直接越过，不需要等待；key 为 0 与空槽位无法区分，单独记录在头部
+ * 只支持插入与更新，不支持删除，所以探测链不会断开
+ */
+public class JSharedMemKeyIndex implements AutoCloseable {
+    private static final System.Logger LOGGER = System.getLogger(JSharedMemKeyIndex.class.getName());
+    public static final String KEY_INDEX_FILE_ENDS = ".keyindex";
+    public static final int DEF_SLOTS = 1 << 20;
+    private static final int MAGIC = 0x4A534B49; // JSKI
+    // V1 先 CAS offset 再写 key，崩溃会留下永远处于写入中的槽位
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 128;
+    private static final int SLOT_SIZE = 16;
+    private static final int INDEX_MAGIC = 0;
+    private static final int INDEX_SLOT_COUNT = 4;
+    private static final int INDEX_VERSION = 8;
+    private static final int INDEX_KEY_COUNT = 64;
+    private static final int INDEX_ZERO_KEY = 72;
+    private static final int INDEX_SETTLED = 80;
+    private static final long EMPTY = 0;
+
+    private final File file;
+    private final int slotCount;
+    private final int mask;
+    private final RandomAccessFile accessFile;
+    private final FileChannel channel;
+    private final MappedByteBuffer memory;
+
+    /**
+     * @param slots 新建索引时的槽位数量，向上取整为2的幂；已有索引以文件中的为准
+     */
+    public JSharedMemKeyIndex(Path path, int slots) {
+        this.file = path.toFile();
+        try {
+            boolean created = !file.exists() || file.length() < HEADER_SIZE;
+            int slotCount = JSharedMemQueue.ceilPowerOfTwo(slots);
+            this.accessFile = new RandomAccessFile(file, "rw");
+            this.channel = accessFile.getChannel();
+            if (!created) {
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+                if (AtomicVarHandle.getInt(header, INDEX_MAGIC) == MAGIC) {
+                    slotCount = AtomicVarHandle.getInt(header, INDEX_SLOT_COUNT);
+                }
+            }
+            this.slotCount = slotCount;
+            this.mask = slotCount - 1;
+            this.memory = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) slotCount * SLOT_SIZE);
+            // 多个进程同时打开旧版本文件时只迁移一次，文件锁在进程内不能重叠，所以先在进程内互斥
+            synchronized (JSharedMemKeyIndex.class) {
+                FileLock lock = channel.lock();
+                try {
+                    if (AtomicVarHandle.getInt(memory, INDEX_MAGIC) == MAGIC && AtomicVarHandle.getInt(memory, INDEX_VERSION) < VERSION) {
+                        migrate();
+                    }
+                    AtomicVarHandle.setInt(memory, INDEX_SLOT_COUNT, slotCount);
+                    AtomicVarHandle.setInt(memory, INDEX_VERSION, VERSION);
+                    AtomicVarHandle.setInt(memory, INDEX_MAGIC, MAGIC);
+                } finally {
+                    lock.release();
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("KEY 索引创建失败: " + path, e);
+        }
+    }
+
+    /**
+     * V1 中 key 为 0 的记录与空槽位无法区分，按新格式重建
+     */
+    private void migrate() {
+        long[] keys = new long[16];
+        long[] offsets = new long[16];
+        int count = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            int index = slotIndex(slot);
+            long stored = AtomicVarHandle.getLong(memory, index + 8);
+            if (stored > 0) { // V1 写入中 (-1) 的槽位没有 offset，丢弃
+                if (count == keys.length) {
+                    keys = Arrays.copyOf(keys, count * 2);
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                }
+                keys[count] = AtomicVarHandle.getLong(memory, index);
+                offsets[count++] = stored - 1;
+            }
+            AtomicVarHandle.setLong(memory, index, EMPTY);
+            AtomicVarHandle.setLong(memory, index + 8, EMPTY);
+        }
+        AtomicVarHandle.setLong(memory, INDEX_KEY_COUNT, 0);
+        AtomicVarHandle.setLong(memory, INDEX_ZERO_KEY, EMPTY);
+        AtomicVarHandle.setLong(memory, INDEX_SETTLED, 0);
+        for (int i = 0; i < count; i++) {
+            put(keys[i], offsets[i]);
+        }
+        LOGGER.log(System.Logger.Level.INFO, "KEY INDEX 迁移 {0} KEYS: {1}", file.getName(), count);
+    }
+
+    public static Path getPath(JSharedMemBaseInfo jSharedMemBaseInfo) {
+        return jSharedMemBaseInfo.getTopicDir().resolve(jSharedMemBaseInfo.getTopic() + KEY_INDEX_FILE_ENDS);
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int slotIndex(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    /**
+     * 记录 key 的最新 offset，offset 比已记录的小时忽略 (多个生产者乱序完成)
+     */
+    public void put(long key, long offset) {
+        if (key == EMPTY) {
+            if (advance(INDEX_ZERO_KEY, offset + 1) == EMPTY) {
+                AtomicVarHandle.getAndAddLong(memory, INDEX_KEY_COUNT, 1);
+            }
+            return;
+        }
+        int slot = hash(key) & mask;
+        for (int probe = 0; probe < slotCount; probe++) {
+            int index = slotIndex(slot);
+            long stored = AtomicVarHandle.getLongAcquire(memory, index);
+            if (stored == EMPTY) {
+                if (AtomicVarHandle.compareAndSetLong(memory, index, EMPTY, key)) {
+                    AtomicVarHandle.getAndAddLong(memory, INDEX_KEY_COUNT, 1);
+                    advance(index + 8, offset + 1);
+                    return;
+                }
+                stored = AtomicVarHandle.getLongAcquire(memory, index);
+            }
+            if (stored == key) {
+                advance(index + 8, offset + 1);
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        throw new IllegalStateException("KEY 索引已满: " + slotCount);
+    }
+
+    /**
+     * 只前进不后退
+     *
+     * @return 更新之前的值
+     */
+    private long advance(int index, long value) {
+        long stored = AtomicVarHandle.getLongAcquire(memory, index);
+        while (stored < value) {
+            if (AtomicVarHandle.compareAndSetLong(memory, index, stored, value)) break;
+            stored = AtomicVarHandle.getLongAcquire(memory, index);
+        }
+        return stored;
+    }
+
+    /**
+     * @return key 的最新 offset，不存在时返回 -1
+     */
+    public long get(long key) {
+        if (key == EMPTY) {
+            return AtomicVarHandle.getLongAcquire(memory, INDEX_ZERO_KEY) - 1;
+        }
+        int slot = hash(key) & mask;
+        for (int probe = 0; probe < slotCount; probe++) {
+            int index = slotIndex(slot);
+            long stored = AtomicVarHandle.getLongAcquire(memory, index);
+            if (stored == EMPTY) return -1;
+            if (stored == key) {
+                return AtomicVarHandle.getLongAcquire(memory, index + 8) - 1; // offset 还没有写入时为 -1
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * 推进并返回已确认的位置: 之前的 SMG 都已经写完 (可读或已废弃)
+     * 生产者先更新索引再发布 SMG，所以已确认位置之前的记录在索引中一定可见
+     * 从上一次确认的位置继续扫描，遇到还没写完的 SMG 时停下
+     */
+    long settle(JSharedMemBaseInfo jSharedMemBaseInfo) {
+        long totalOffset = jSharedMemBaseInfo.readTotalOffset();
+        long offset = AtomicVarHandle.getLongAcquire(memory, INDEX_SETTLED);
+        JSharedMemCarriage carriage = null;
+        try {
+            while (offset < totalOffset) {
+                if (carriage == null || carriage.compareTo(offset) != 0) {
+                    if (carriage != null) carriage.close();
+                    carriage = new JSharedMemCarriage(jSharedMemBaseInfo, offset, null).mmap(FileChannel.MapMode.READ_ONLY);
+                }
+                if (!carriage.exist() || carriage.isArchived()) {
+                    if (!carriage.exist() && totalOffset <= carriage.getEndOffset()) break; // 生产者还没有创建最新的车厢文件
+                    offset = carriage.getEndOffset(); // 已清理或已归档的车厢都已经写完
+                    continue;
+                }
+                if (!carriage.getSegment(offset).isPublished()) break;
+                offset++;
+            }
+        } finally {
+            if (carriage != null) carriage.close();
+        }
+        advance(INDEX_SETTLED, offset);
+        return offset;
+    }
+
+    /**
+     * 遍历所有 key 及其最新 offset
+     */
+    public void forEach(Entry consumer) {
+        long zeroKey = AtomicVarHandle.getLongAcquire(memory, INDEX_ZERO_KEY);
+        if (zeroKey > 0) {
+            consumer.accept(EMPTY, zeroKey - 1);
+        }
+        for (int slot = 0; slot < slotCount; slot++) {
+            int index = slotIndex(slot);
+            long key = AtomicVarHandle.getLongAcquire(memory, index);
+            long stored = AtomicVarHandle.getLongAcquire(memory, index + 8);
+            if (key != EMPTY && stored > 0) {
+                consumer.accept(key, stored - 1);
+            }
+        }
+    }
+
+    public long size() {
+        return AtomicVarHandle.getLong(memory, INDEX_KEY_COUNT);
+    }
+
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.channel.close();
+            this.accessFile.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @FunctionalInterface
+    public interface Entry {
+        void accept(long key, long offset);
+    }
+}
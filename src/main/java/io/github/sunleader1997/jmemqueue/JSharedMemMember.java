@@ -0,0 +1,58 @@
+package io.github.sunleader1997.jmemqueue;
+
+/**
+ * group 成员快照
+ */
+public class JSharedMemMember {
+    private final int slot;
+    private final long pid;
+    private final long memberId;
+    private final long joinedMillis;
+    private final long heartbeatMillis;
+    private final long consumed;
+
+    JSharedMemMember(int slot, long pid, long memberId, long joinedMillis, long heartbeatMillis, long consumed) {
+        this.slot = slot;
+        this.pid = pid;
+        this.memberId = memberId;
+        this.joinedMillis = joinedMillis;
+        this.heartbeatMillis = heartbeatMillis;
+        this.consumed = consumed;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public long getPid() {
+        return pid;
+    }
+
+    /**
+     * 成员加入时随机生成，同一个进程内的多个 reader 以此区分
+     */
+    public long getMemberId() {
+        return memberId;
+    }
+
+    public long getJoinedMillis() {
+        return joinedMillis;
+    }
+
+    public long getHeartbeatMillis() {
+        return heartbeatMillis;
+    }
+
+    /**
+     * 累计领取的 offset 数量，两次快照之差除以时间间隔即为吞吐量
+     */
+    public long getConsumed() {
+        return consumed;
+    }
+
+    @Override
+    public String toString() {
+        return "Member{slot=" + slot + ", pid=" + pid + ", memberId=" + Long.toHexString(memberId)
+                + ", heartbeat=" + heartbeatMillis + ", consumed=" + consumed + "}";
+    }
+}
@@ -0,0 +1,193 @@
+package io.github.sunleader1997.jmemqueue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * group 成员表，位于 ${group}.reader 文件中 group offset 之后
+ * <pre>
+ * [0]    group offset
+ * [128]  SLOT * MAX_MEMBERS, 每个 SLOT 独占 128 字节 (心跳写入不会与 offset 的 CAS 或其他成员共享缓存行)
+ * SLOT:  generation(8) pid(8) memberId(8) joinedMillis(8) heartbeatMillis(8) consumed(8) ready(8) pidNamespace(8)
+ *        generation: 偶数空闲，奇数已占用；加入与离开/驱逐都使用 CAS 加一，只增不减，CAS 不会有 ABA
+ *        ready: 加入的字段写完之后写入本次的 generation，不相等表示正在加入
+ * </pre>
+ * 心跳与计数只由成员自己写入，使用 opaque 写；加入与驱逐使用 CAS
+ * 驱逐以心跳超时为准；只有成员与本进程在同一个 PID 命名空间、并且进程已经不存在时才提前驱逐
+ * 正在加入的 slot 在本进程连续观察到超时仍没有加入完成 (加入的进程崩溃) 时回收
+ */
+final class JSharedMemMembership {
+    public static final int MAX_MEMBERS = 256;
+    private static final int INDEX_MEMBERS = JSharedMemBaseInfo.CACHE_LINE_PAD;
+    private static final int SLOT_SIZE = JSharedMemBaseInfo.CACHE_LINE_PAD;
+    /**
+     * reader 文件需要映射的大小: group offset 行 + 成员表
+     */
+    static final int FILE_SIZE = INDEX_MEMBERS + MAX_MEMBERS * SLOT_SIZE;
+    private static final int GENERATION = 0;
+    private static final int PID = 8;
+    private static final int MEMBER_ID = 16;
+    private static final int JOINED = 24;
+    private static final int HEARTBEAT = 32;
+    private static final int CONSUMED = 40;
+    private static final int READY = 48;
+    private static final int PID_NAMESPACE = 56;
+    // 本进程的 PID 命名空间，无法识别时为 0 (只依赖心跳超时)
+    private static final long CURRENT_PID_NAMESPACE = currentPidNamespace();
+
+    private final ByteBuffer memory;
+    // 本进程观察到的正在加入的 slot: slot -> (generation, 第一次观察到的时间)，只由驱逐线程访问
+    private final Map<Integer, long[]> joiningSince = new HashMap<>();
+
+    JSharedMemMembership(ByteBuffer memory) {
+        this.memory = memory;
+    }
+
+    /**
+     * 成员持有的 slot 与加入时的 generation，心跳与离开都以 generation 校验
+     */
+    record Ticket(int slot, long generation) {
+    }
+
+    private static int slotIndex(int slot) {
+        return INDEX_MEMBERS + slot * SLOT_SIZE;
+    }
+
+    private static boolean isOccupied(long generation) {
+        return (generation & 1) != 0;
+    }
+
+    /**
+     * @return 成员表已满时返回 null
+     */
+    Ticket join(long pid, long memberId, long now) {
+        for (int slot = 0; slot < MAX_MEMBERS; slot++) {
+            int index = slotIndex(slot);
+            long generation = AtomicVarHandle.getLongOpaque(memory, index + GENERATION);
+            if (isOccupied(generation)) continue;
+            if (AtomicVarHandle.compareAndSetLong(memory, index + GENERATION, generation, generation + 1)) {
+                AtomicVarHandle.setLongOpaque(memory, index + PID, pid);
+                AtomicVarHandle.setLongOpaque(memory, index + MEMBER_ID, memberId);
+                AtomicVarHandle.setLongOpaque(memory, index + JOINED, now);
+                AtomicVarHandle.setLongOpaque(memory, index + HEARTBEAT, now);
+                AtomicVarHandle.setLongOpaque(memory, index + CONSUMED, 0);
+                AtomicVarHandle.setLongOpaque(memory, index + PID_NAMESPACE, CURRENT_PID_NAMESPACE);
+                AtomicVarHandle.setLongRelease(memory, index + READY, generation + 1); // 字段写完之后才对其他进程可见
+                return new Ticket(slot, generation + 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 写入心跳与计数，slot 已被其他进程驱逐 (generation 不匹配) 时返回 false
+     */
+    boolean heartbeat(Ticket ticket, long now, long consumed) {
+        int index = slotIndex(ticket.slot());
+        if (AtomicVarHandle.getLongAcquire(memory, index + GENERATION) != ticket.generation()) {
+            return false;
+        }
+        AtomicVarHandle.setLongOpaque(memory, index + HEARTBEAT, now);
+        AtomicVarHandle.setLongOpaque(memory, index + CONSUMED, consumed);
+        return true;
+    }
+
+    void leave(Ticket ticket) {
+        int index = slotIndex(ticket.slot());
+        AtomicVarHandle.compareAndSetLong(memory, index + GENERATION, ticket.generation(), ticket.generation() + 1);
+    }
+
+    /**
+     * 驱逐心跳超时或进程已经退出的成员，回收加入到一半的 slot
+     *
+     * @return 驱逐的数量
+     */
+    int evict(long now, long timeoutMillis) {
+        int evicted = 0;
+        for (int slot = 0; slot < MAX_MEMBERS; slot++) {
+            int index = slotIndex(slot);
+            long generation = AtomicVarHandle.getLongAcquire(memory, index + GENERATION);
+            if (!isOccupied(generation)) {
+                joiningSince.remove(slot);
+                continue;
+            }
+            boolean stale;
+            if (AtomicVarHandle.getLongAcquire(memory, index + READY) != generation) {
+                long[] since = joiningSince.get(slot);
+                if (since == null || since[0] != generation) {
+                    joiningSince.put(slot, new long[]{generation, now});
+                    continue;
+                }
+                stale = now - since[1] > timeoutMillis;
+            } else {
+                joiningSince.remove(slot);
+                long heartbeat = AtomicVarHandle.getLongOpaque(memory, index + HEARTBEAT);
+                stale = now - heartbeat > timeoutMillis || isExited(index);
+            }
+            if (stale && AtomicVarHandle.compareAndSetLong(memory, index + GENERATION, generation, generation + 1)) {
+                joiningSince.remove(slot);
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * 只有在同一个 PID 命名空间中、并且进程已经不存在时才能确定成员已退出，其他情况依赖心跳超时
+     */
+    private boolean isExited(int index) {
+        long namespace = AtomicVarHandle.getLongOpaque(memory, index + PID_NAMESPACE);
+        if (namespace == 0 || namespace != CURRENT_PID_NAMESPACE) {
+            return false;
+        }
+        long pid = AtomicVarHandle.getLongOpaque(memory, index + PID);
+        return ProcessHandle.of(pid).isEmpty();
+    }
+
+    /**
+     * Linux 上为 /proc/self/ns/pid 的 inode (例如 pid:[4026531836])
+     */
+    private static long currentPidNamespace() {
+        try {
+            String link = Files.readSymbolicLink(Paths.get("/proc/self/ns/pid")).toString();
+            int begin = link.indexOf('[');
+            int end = link.indexOf(']');
+            return begin < 0 || end < begin ? 0 : Long.parseLong(link.substring(begin + 1, end));
+        } catch (IOException | UnsupportedOperationException | SecurityException | NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 所有 slot 中最近一次心跳 (离开的成员不清除心跳)，从来没有成员加入时为 0
+     */
+    long lastHeartbeat() {
+        long last = 0;
+        for (int slot = 0; slot < MAX_MEMBERS; slot++) {
+            last = Math.max(last, AtomicVarHandle.getLongOpaque(memory, slotIndex(slot) + HEARTBEAT));
+        }
+        return last;
+    }
+
+    List<JSharedMemMember> members() {
+        List<JSharedMemMember> members = new ArrayList<>();
+        for (int slot = 0; slot < MAX_MEMBERS; slot++) {
+            int index = slotIndex(slot);
+            long generation = AtomicVarHandle.getLongAcquire(memory, index + GENERATION);
+            if (!isOccupied(generation) || AtomicVarHandle.getLongAcquire(memory, index + READY) != generation) continue;
+            members.add(new JSharedMemMember(slot,
+                    AtomicVarHandle.getLongOpaque(memory, index + PID),
+                    AtomicVarHandle.getLongOpaque(memory, index + MEMBER_ID),
+                    AtomicVarHandle.getLongOpaque(memory, index + JOINED),
+                    AtomicVarHandle.getLongOpaque(memory, index + HEARTBEAT),
+                    AtomicVarHandle.getLongOpaque(memory, index + CONSUMED)));
+        }
+        return members;
+    }
+}
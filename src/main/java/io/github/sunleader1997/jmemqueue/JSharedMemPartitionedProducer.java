@@ -0,0 +1,74 @@
+package io.github.sunleader1997.jmemqueue;
+
+import java.util.Arrays;
+
+/**
+ * 分区生产者
+ * 每个分区有独立的总偏移量，生产者之间只在同一个分区上竞争
+ */
+public class JSharedMemPartitionedProducer implements AutoCloseable {
+    private final JSharedMemProducer[] producers;
+    // 轮询计数器按线程独立，避免再引入一个共享的竞争点
+    private final ThreadLocal<int[]> roundRobin = ThreadLocal.withInitial(() -> new int[]{(int) Thread.currentThread().getId()});
+
+    public JSharedMemPartitionedProducer(JSharedMemProducer[] producers) {
+        this.producers = producers;
+    }
+
+    /**
+     * 轮询写入
+     */
+    public boolean enqueue(byte[] data) {
+        int[] counter = roundRobin.get();
+        int partition = Math.floorMod(counter[0]++, producers.length);
+        return producers[partition].enqueue(data);
+    }
+
+    /**
+     * 按 key 哈希写入，相同 key 的消息有序
+     * 分区开启 tag (包括压实) 时 key 同时写入 tag，压实分区按 key 保留最新值
+     */
+    public boolean enqueue(long key, byte[] data) {
+        JSharedMemProducer producer = producers[partitionFor(key)];
+        return producer.isTagged() ? producer.enqueue(key, data) : producer.enqueue(data);
+    }
+
+    /**
+     * 按 key 的哈希路由，不写入 tag
+     * 压实分区需要精确的 key，哈希可能冲突，所以拒绝，请使用 {@link #enqueue(long, byte[])}
+     */
+    public boolean enqueue(byte[] key, byte[] data) {
+        JSharedMemProducer producer = producers[partitionFor(Arrays.hashCode(key))];
+        if (producer.isCompacted()) {
+            throw new IllegalStateException("压实分区只能写入 long key: enqueue(long, data)");
+        }
+        return producer.enqueue(data);
+    }
+
+    public int partitionFor(long key) {
+        return partitionFor(key, producers.length);
+    }
+
+    /**
+     * 先打散再取模，避免连续的 key 只落在少数分区
+     */
+    public static int partitionFor(long key, int partitions) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return Math.floorMod((int) (h ^ (h >>> 32)), partitions);
+    }
+
+    public JSharedMemProducer getProducer(int partition) {
+        return producers[partition];
+    }
+
+    public int getPartitions() {
+        return producers.length;
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (JSharedMemProducer producer : producers) {
+            producer.close();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package io.github.sunleader1997.jmemqueue;
+
+/**
+ * 分区消费者
+ * 只读取分配给自己的分区，在这些分区之间轮询
+ * 每个成员由一个线程使用，分区内部只有一个消费者，reader offset 的 CAS 不再有竞争
+ */
+public class JSharedMemPartitionedReader implements AutoCloseable {
+    private final int[] partitions;
+    private final JSharedMemReader[] readers;
+    private int next; // 下一次开始轮询的位置
+
+    public JSharedMemPartitionedReader(int[] partitions, JSharedMemReader[] readers) {
+        this.partitions = partitions;
+        this.readers = readers;
+    }
+
+    /**
+     * 分区 p 分配给 p % memberCount == memberIndex 的成员
+     */
+    public static int[] assign(int partitions, int memberIndex, int memberCount) {
+        if (memberCount < 1 || memberIndex < 0 || memberIndex >= memberCount) {
+            throw new IllegalArgumentException("成员序号不合法: " + memberIndex + "/" + memberCount);
+        }
+        int count = 0;
+        for (int p = memberIndex; p < partitions; p += memberCount) {
+            count++;
+        }
+        int[] assigned = new int[count];
+        for (int i = 0, p = memberIndex; p < partitions; p += memberCount) {
+            assigned[i++] = p;
+        }
+        return assigned;
+    }
+
+    /**
+     * 从分配的分区中读取一条数据
+     *
+     * @return 所有分区都为空时返回 null
+     */
+    public byte[] dequeue() {
+        int length = readers.length;
+        for (int i = 0; i < length; i++) {
+            int index = next;
+            next = index + 1 == length ? 0 : index + 1;
+            byte[] data = readers[index].dequeue();
+            if (data != null) {
+                return data;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 分配给当前成员的分区
+     */
+    public int[] getPartitions() {
+        return partitions.clone();
+    }
+
+    public JSharedMemReader getReader(int partition) {
+        for (int i = 0; i < partitions.length; i++) {
+            if (partitions[i] == partition) {
+                return readers[i];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        for (JSharedMemReader reader : readers) {
+            reader.close();
+        }
+    }
+}
@@ -1,35 +1,274 @@
 package io.github.sunleader1997.jmemqueue;
 
+import io.github.sunleader1997.jmemqueue.codec.Codec;
 import io.github.sunleader1997.jmemqueue.ttl.TimeToLive;
 
 import java.nio.channels.FileChannel;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 public class JSharedMemProducer implements AutoCloseable {
+    private static final System.Logger LOGGER = System.getLogger(JSharedMemProducer.class.getName());
     // 每个线程自己维护一个车厢，防止竞态
     private final ThreadLocal<JSharedMemCarriage> threadLocalWriteCarriage = new ThreadLocal<>();
 
     private final JSharedMemBaseInfo jSharedMemBaseInfo;
     private TimeToLive timeToLive;
+    private JSharedMemFlusher flusher; // Durability.NONE 时为空
+    private final boolean tagged;
+    private final boolean compacted;
+    private final int maxContentSize; // SMG 内容容量，带 tag 时少 8 字节
+    private JSharedMemKeyIndex keyIndex; // 只有压实 topic 才有
+    // 发布数据后通知选择器
+    private final JSharedMemReadiness readiness;
+    private final int readinessBit;
+    private JSharedMemProducer delayProducer; // 延迟日志的生产者，第一次写入延迟消息时创建
 
     public JSharedMemProducer(JSharedMemBaseInfo jSharedMemBaseInfo) {
         this.jSharedMemBaseInfo = jSharedMemBaseInfo; // 基础信息
         this.jSharedMemBaseInfo.mmap(FileChannel.MapMode.READ_WRITE); // 读写模式
         this.jSharedMemBaseInfo.flush(); // 写入磁盘
-        this.jSharedMemBaseInfo.print();
+        this.tagged = this.jSharedMemBaseInfo.isTagged();
+        this.compacted = this.jSharedMemBaseInfo.isCompacted();
+        this.maxContentSize = this.jSharedMemBaseInfo.readMsgMaxSize() + JSharedMemSegment.CONTENT_OFFSET
+                - (tagged ? JSharedMemSegment.TAGGED_CONTENT_OFFSET : JSharedMemSegment.CONTENT_OFFSET);
+        this.readiness = JSharedMemReadiness.of(jSharedMemBaseInfo.getStoragePolicy().getParentDir());
+        this.readinessBit = JSharedMemReadiness.bitOf(jSharedMemBaseInfo.getTopic());
+    }
+
+    /**
+     * 绑定刷盘线程，由 JSharedMemQueue 按 Durability 配置调用，调用前已经 retain
+     */
+    void bindFlusher(JSharedMemFlusher flusher) {
+        this.flusher = flusher;
+    }
+
+    /**
+     * 绑定 key 索引，由 JSharedMemQueue 在压实 topic 上调用，生产者关闭时一起关闭
+     */
+    void bindKeyIndex(JSharedMemKeyIndex keyIndex) {
+        this.keyIndex = keyIndex;
     }
 
     /**
      * 向车厢塞入数据
      */
     public boolean enqueue(byte[] data) {
+        checkKeyless();
+        checkSize(data.length);
         // 这里使用 cas 已经保证 offset 唯一性了，所以可以直接覆盖
         long offset = this.jSharedMemBaseInfo.getAndIncreaseTotalOffset();
         JSharedMemSegment segment = createSegment(offset); // 当前SMG
         segment.writeContent(data);
+        readiness.signal(readinessBit);
+        return true;
+    }
+
+    /**
+     * 写入带 tag 的数据，topic 需要开启 tag
+     * 读者可以只根据 tag 过滤，不需要复制内容
+     */
+    public boolean enqueue(long tag, byte[] data) {
+        if (!tagged) { // 领取 offset 之前检查，避免留下永远不可读的 SMG
+            throw new IllegalStateException("当前 topic 没有开启 tag");
+        }
+        checkSize(data.length);
+        long offset = this.jSharedMemBaseInfo.getAndIncreaseTotalOffset();
+        JSharedMemSegment segment = createSegment(offset);
+        if (keyIndex == null) {
+            segment.writeContent(tag, data);
+        } else { // 压实 topic 中 tag 即 key，先更新索引再发布，快照确认 SMG 写完时索引一定可见
+            segment.putContent(data, 0, data.length);
+            putKey(segment, tag, offset);
+            segment.publish(tag, data.length);
+        }
+        readiness.signal(readinessBit);
+        return true;
+    }
+
+    /**
+     * 直接把 long 写入 SMG 内容区 (大端序)，不分配中间对象
+     */
+    public boolean enqueueLong(long value) {
+        checkKeyless();
+        long offset = this.jSharedMemBaseInfo.getAndIncreaseTotalOffset();
+        JSharedMemSegment segment = createSegment(offset);
+        try {
+            segment.putLong(0, value);
+        } catch (RuntimeException e) {
+            segment.discard();
+            throw e;
+        }
+        segment.publish(Long.BYTES);
+        readiness.signal(readinessBit);
         return true;
     }
 
+    /**
+     * 直接把 int 数组写入 SMG 内容区 (大端序)，读取时长度为 size / 4
+     */
+    public boolean enqueueInts(int... values) {
+        checkKeyless();
+        long offset = this.jSharedMemBaseInfo.getAndIncreaseTotalOffset();
+        JSharedMemSegment segment = createSegment(offset);
+        try {
+            for (int i = 0; i < values.length; i++) {
+                segment.putInt(i * Integer.BYTES, values[i]);
+            }
+        } catch (RuntimeException e) { // 超过容量
+            segment.discard();
+            throw e;
+        }
+        segment.publish(values.length * Integer.BYTES);
+        readiness.signal(readinessBit);
+        return true;
+    }
+
+    /**
+     * 使用编解码直接写入 SMG 内容区
+     * 编码失败时 SMG 被废弃 (读者跳过)，异常抛给调用方
+     */
+    public <T> boolean enqueue(T value, Codec<T> codec) {
+        checkKeyless();
+        long offset = this.jSharedMemBaseInfo.getAndIncreaseTotalOffset();
+        JSharedMemSegment segment = createSegment(offset);
+        segment.publish(encode(value, codec, segment));
+        readiness.signal(readinessBit);
+        return true;
+    }
+
+    /**
+     * 使用编解码写入带 tag 的数据，topic 需要开启 tag
+     */
+    public <T> boolean enqueue(long tag, T value, Codec<T> codec) {
+        if (!tagged) {
+            throw new IllegalStateException("当前 topic 没有开启 tag");
+        }
+        long offset = this.jSharedMemBaseInfo.getAndIncreaseTotalOffset();
+        JSharedMemSegment segment = createSegment(offset);
+        int length = encode(value, codec, segment);
+        if (keyIndex != null) {
+            putKey(segment, tag, offset);
+        }
+        segment.publish(tag, length);
+        readiness.signal(readinessBit);
+        return true;
+    }
+
+    /**
+     * 更新 key 索引，失败 (索引已满) 时废弃已领取的 SMG
+     */
+    private void putKey(JSharedMemSegment segment, long key, long offset) {
+        try {
+            keyIndex.put(key, offset);
+        } catch (RuntimeException e) {
+            segment.discard();
+            throw e;
+        }
+    }
+
+    private <T> int encode(T value, Codec<T> codec, JSharedMemSegment segment) {
+        try {
+            int length = codec.encode(value, segment);
+            if (length < 0 || length > segment.maxContentSize) {
+                throw new IllegalArgumentException("数据大小超过最大限制: " + segment.maxContentSize);
+            }
+            return length;
+        } catch (RuntimeException e) {
+            segment.discard();
+            throw e;
+        }
+    }
+
+    /**
+     * 写入数据并等待刷盘
+     * 返回的 future 在覆盖此 offset 的刷盘完成后结束，SYNC_BATCH 模式下多个生产者的请求合并为一次刷盘
+     * 没有开启持久化 (Durability.NONE) 时立即结束
+     *
+     * @return 写入的 offset
+     */
+    public CompletableFuture<Long> enqueueDurable(byte[] data) {
+        checkKeyless();
+        checkSize(data.length);
+        long offset = this.jSharedMemBaseInfo.getAndIncreaseTotalOffset();
+        createSegment(offset).writeContent(data);
+        readiness.signal(readinessBit);
+        if (flusher == null) {
+            return CompletableFuture.completedFuture(offset);
+        }
+        return flusher.register(offset);
+    }
+
+    /**
+     * 写入延迟消息: 先写入延迟日志 ${topic}-delay (tag 为到期时间)，到期后由 {@link JSharedMemDelayScheduler} 写入当前 topic
+     * 需要有一个进程为该 topic 运行调度器，见 {@link JSharedMemQueue#createDelayScheduler()}
+     * 延迟不能超过延迟日志车厢的保存时间 ({@link JSharedMemDelayScheduler#MAX_DELAY_MS})
+     *
+     * @throws IllegalArgumentException 延迟为负数或超过延迟日志的保存时间
+     */
+    public boolean enqueueDelayed(byte[] data, long delay, TimeUnit timeUnit) {
+        checkKeyless();
+        if (delay < 0) {
+            throw new IllegalArgumentException("延迟不能为负数: " + delay);
+        }
+        long delayMs = timeUnit.toMillis(delay); // 溢出时为 Long.MAX_VALUE
+        if (delayMs > JSharedMemDelayScheduler.MAX_DELAY_MS) {
+            throw new IllegalArgumentException("延迟超过延迟日志的保存时间: " + delayMs + "ms > " + JSharedMemDelayScheduler.MAX_DELAY_MS + "ms");
+        }
+        checkSize(data.length); // 到期后写入当前 topic，按当前 topic 的容量检查
+        long dueMs = System.currentTimeMillis() + delayMs; // 延迟有上限，不会溢出
+        return delayProducer().enqueue(dueMs, data);
+    }
+
+    private synchronized JSharedMemProducer delayProducer() {
+        if (delayProducer == null) {
+            delayProducer = new JSharedMemProducer(createDelayBaseInfo());
+        }
+        return delayProducer;
+    }
+
+    /**
+     * 延迟日志的基础信息，车厢容量与当前 topic 相同
+     * 数据元容量多出 tag 的 8 字节，当前 topic 能写入的数据都能写入延迟日志
+     */
+    JSharedMemBaseInfo createDelayBaseInfo() {
+        return new JSharedMemBaseInfo(jSharedMemBaseInfo.getTopic() + JSharedMemDelayScheduler.DELAY_SUFFIX, jSharedMemBaseInfo.readMsgMaxSize() + Long.BYTES,
+                (int) jSharedMemBaseInfo.readCarriage(), jSharedMemBaseInfo.getStoragePolicy(), JSharedMemBaseInfo.FLAG_TAGGED);
+    }
+
+    /**
+     * 单条数据的最大长度 (B)，带 tag 时比数据元容量少 8 字节
+     */
+    public int getMaxContentSize() {
+        return maxContentSize;
+    }
+
+    boolean isTagged() {
+        return tagged;
+    }
+
+    boolean isCompacted() {
+        return compacted;
+    }
+
+    /**
+     * 领取 offset 之前检查数据大小，领取后再失败会留下读者永远等待的空洞
+     */
+    private void checkSize(int length) {
+        if (length > maxContentSize) {
+            throw new IllegalArgumentException("数据大小超过最大限制: " + maxContentSize);
+        }
+    }
+
+    /**
+     * 压实 topic 只接受带 key 的数据，没有 key 的数据无法压实
+     */
+    private void checkKeyless() {
+        if (compacted) {
+            throw new IllegalStateException("压实 topic 只能写入带 key 的数据: enqueue(key, data)");
+        }
+    }
+
     // 获取当前线程的车厢
     public JSharedMemSegment createSegment(long offset) {
         JSharedMemCarriage writeCarriage = getCarriageForLocal(offset);
@@ -50,7 +289,7 @@ public class JSharedMemProducer implements AutoCloseable {
                 writeCarriage.close(); // 旧的车厢应该销毁
                 JSharedMemCarriage newWriteCarriage = new JSharedMemCarriage(jSharedMemBaseInfo, offset, timeToLive).mmap(FileChannel.MapMode.READ_WRITE);
                 threadLocalWriteCarriage.set(newWriteCarriage);
-                if (compare > 0) System.out.println("!!! 方法调用有严重问题");
+                if (compare > 0) LOGGER.log(System.Logger.Level.ERROR, "!!! 方法调用有严重问题: 车厢 {0} 回退到 offset {1}", writeCarriage.getCarriageIndex(), offset);
                 return newWriteCarriage;
             }
         } else {
@@ -75,6 +314,18 @@ public class JSharedMemProducer implements AutoCloseable {
             threadLocalWriteCarriage.remove();
             writeCarriage.close();
         }
+        if (flusher != null) {
+            flusher.release();
+            flusher = null;
+        }
+        if (keyIndex != null) {
+            keyIndex.close();
+            keyIndex = null;
+        }
+        if (delayProducer != null) {
+            delayProducer.close();
+            delayProducer = null;
+        }
         if (jSharedMemBaseInfo != null) {
             jSharedMemBaseInfo.close();
         }
@@ -0,0 +1,140 @@
+package io.github.sunleader1997.jmemqueue;
+
+import io.github.sunleader1997.jmemqueue.wait.WaitStrategy;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * reader 的响应式适配: request(n) 时一次 CAS 领取最多 n 个 offset，没有需求时不领取 (背压)
+ * 每个订阅运行在独立的消费线程上 (JDK 21+ 为虚拟线程)，多个订阅在 reader 的 group 内竞争
+ * 队列没有结束，所以不会发出 onComplete；reader 由调用方关闭，关闭 reader 之前先关闭 publisher
+ */
+public class JSharedMemPublisher implements Flow.Publisher<ByteBuffer>, AutoCloseable {
+    public static final int DEF_MAX_BATCH = 256;
+
+    private final JSharedMemReader reader;
+    private final WaitStrategy waitStrategy;
+    private final int maxBatch;
+    private final List<ReaderSubscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    public JSharedMemPublisher(JSharedMemReader reader) {
+        this(reader, WaitStrategy.backoff(), DEF_MAX_BATCH);
+    }
+
+    /**
+     * @param maxBatch 单次领取的最大数量，需求很大时也分批领取，避免同一个 group 内其他成员饥饿
+     */
+    public JSharedMemPublisher(JSharedMemReader reader, WaitStrategy waitStrategy, int maxBatch) {
+        this.reader = reader;
+        this.waitStrategy = waitStrategy;
+        this.maxBatch = Math.max(1, maxBatch);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        Objects.requireNonNull(subscriber);
+        ReaderSubscription subscription = new ReaderSubscription(subscriber);
+        subscriptions.add(subscription);
+        subscription.start();
+    }
+
+    /**
+     * 取消所有订阅并等待消费线程退出，之后才能安全地关闭 reader (解除映射)
+     */
+    @Override
+    public void close() {
+        for (ReaderSubscription subscription : subscriptions) {
+            subscription.cancel();
+        }
+        for (ReaderSubscription subscription : subscriptions) {
+            if (subscription.thread == Thread.currentThread()) continue;
+            try {
+                subscription.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        subscriptions.clear();
+    }
+
+    private final class ReaderSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        private volatile boolean cancelled;
+        private volatile Throwable error;
+        private Thread thread;
+
+        private ReaderSubscription(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        private void start() {
+            this.thread = ConsumerThreads.newThread("JSMQ-publisher-" + reader.getTopic(), this::run);
+            this.thread.start();
+        }
+
+        private void run() {
+            try {
+                subscriber.onSubscribe(this);
+                int idle = 0;
+                while (!cancelled) {
+                    long demand = requested.get();
+                    if (demand == 0) {
+                        LockSupport.park(this); // request 时唤醒
+                        continue;
+                    }
+                    int count = reader.poll((int) Math.min(demand, maxBatch), this::emit);
+                    if (count > 0) {
+                        if (demand != Long.MAX_VALUE) {
+                            requested.addAndGet(-count);
+                        }
+                        idle = 0;
+                    } else {
+                        waitStrategy.idle(idle);
+                        if (idle < Integer.MAX_VALUE) idle++;
+                    }
+                }
+                if (error != null) {
+                    subscriber.onError(error);
+                }
+            } catch (RuntimeException e) { // 订阅者违反规范 (onNext 抛出异常)，视为取消
+                cancelled = true;
+                e.printStackTrace();
+            } finally {
+                reader.detach();
+                subscriptions.remove(this);
+            }
+        }
+
+        /**
+         * 复制内容: SMG 是享元，订阅者可能异步持有 ByteBuffer
+         */
+        private void emit(JSharedMemSegment segment) {
+            subscriber.onNext(ByteBuffer.wrap(segment.readContent()));
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) { // 规范 3.9
+                error = new IllegalArgumentException("request 必须大于0: " + n);
+                cancelled = true;
+            } else {
+                requested.getAndUpdate(r -> r + n < 0 ? Long.MAX_VALUE : r + n);
+            }
+            LockSupport.unpark(thread);
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            LockSupport.unpark(thread);
+        }
+    }
+}
@@ -1,38 +1,136 @@
 package io.github.sunleader1997.jmemqueue;
 
 import io.github.sunleader1997.jmemqueue.enums.ContentSize;
+import io.github.sunleader1997.jmemqueue.enums.Durability;
+import io.github.sunleader1997.jmemqueue.storage.StoragePolicy;
 import io.github.sunleader1997.jmemqueue.ttl.TimeToLive;
+import io.github.sunleader1997.jmemqueue.wait.WaitStrategy;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
 
 public class JSharedMemQueue {
     public static final TimeToLive DEF_TTL = new TimeToLive(7, TimeUnit.DAYS); // 默认保存 7天
     public static final int DEF_CAPACITY = 1024 * 1024;// 默认车厢承载 1024*1024 条数据（1GB）
+    public static final long DEF_FLUSH_INTERVAL_MS = 10; // 默认刷盘周期
+    public static final String PARTITION_SEPARATOR = "-partition-";
     private final String topic;
     private final int msgMaxSize;
     private final int capacity;
+    private final StoragePolicy storagePolicy;
+    private Durability durability = Durability.NONE;
+    private long flushIntervalMs = DEF_FLUSH_INTERVAL_MS;
+    private JSharedMemFlusher flusher; // 同一个队列的生产者共用
+    private int partitions = 1;
+    private JSharedMemQueue[] partitionQueues;
+    private int flags; // 新建 topic 时写入 .base 的特性标记
+    private int keySlots = JSharedMemKeyIndex.DEF_SLOTS; // 压实 topic 新建 key 索引时的槽位数量
 
     public JSharedMemQueue(String topic) {
-        this.topic = topic;
-        this.msgMaxSize = ContentSize.KB_1.getSize();
-        this.capacity = DEF_CAPACITY;
+        this(topic, ContentSize.KB_1.getSize(), DEF_CAPACITY);
+    }
+
+    public JSharedMemQueue(String topic, StoragePolicy storagePolicy) {
+        this(topic, ContentSize.KB_1.getSize(), DEF_CAPACITY, storagePolicy);
     }
 
     public JSharedMemQueue(String topic, ContentSize contentSize, int capacity) {
-        this.topic = topic;
-        this.msgMaxSize = contentSize.getSize();
-        this.capacity = capacity;
+        this(topic, contentSize.getSize(), capacity);
     }
 
     public JSharedMemQueue(String topic, int msgMaxSize, int capacity) {
+        this(topic, msgMaxSize, capacity, StoragePolicy.disk());
+    }
+
+    public JSharedMemQueue(String topic, int msgMaxSize, int capacity, StoragePolicy storagePolicy) {
         this.topic = topic;
         this.msgMaxSize = msgMaxSize;
         this.capacity = capacity;
+        this.storagePolicy = storagePolicy;
+    }
+
+    /**
+     * @param powerOfTwoCapacity 为 true 时将车厢容量向上取整为2的幂，车厢与SMG索引可以使用移位与掩码计算
+     */
+    public JSharedMemQueue(String topic, ContentSize contentSize, int capacity, boolean powerOfTwoCapacity) {
+        this(topic, contentSize.getSize(), powerOfTwoCapacity ? ceilPowerOfTwo(capacity) : capacity);
+    }
+
+    public static Builder builder(String topic) {
+        return new Builder(topic);
+    }
+
+    /**
+     * 向上取整为2的幂
+     */
+    public static int ceilPowerOfTwo(int capacity) {
+        if (capacity <= 1) return 1;
+        int ceil = Integer.highestOneBit(capacity - 1) << 1;
+        if (ceil <= 0) {
+            throw new IllegalArgumentException("车厢容量过大: " + capacity);
+        }
+        return ceil;
+    }
+
+    private JSharedMemBaseInfo createBaseInfo() {
+        return new JSharedMemBaseInfo(topic, msgMaxSize, capacity, storagePolicy, flags);
     }
 
     public JSharedMemProducer createProducer() {
-        JSharedMemBaseInfo jSharedMemBaseInfo = new JSharedMemBaseInfo(topic, msgMaxSize, capacity); // 基础信息
-        return new JSharedMemProducer(jSharedMemBaseInfo);
+        checkUnpartitioned("createPartitionedProducer");
+        JSharedMemBaseInfo jSharedMemBaseInfo = createBaseInfo(); // 基础信息
+        JSharedMemProducer producer = new JSharedMemProducer(jSharedMemBaseInfo);
+        if (durability != Durability.NONE) {
+            producer.bindFlusher(retainFlusher());
+        }
+        if (jSharedMemBaseInfo.isCompacted()) {
+            producer.bindKeyIndex(openKeyIndex(jSharedMemBaseInfo));
+        }
+        return producer;
+    }
+
+    private JSharedMemKeyIndex openKeyIndex(JSharedMemBaseInfo jSharedMemBaseInfo) {
+        return new JSharedMemKeyIndex(JSharedMemKeyIndex.getPath(jSharedMemBaseInfo), keySlots);
+    }
+
+    /**
+     * 生产者全部关闭后刷盘线程会停止，再次创建生产者时重新启动
+     */
+    private synchronized JSharedMemFlusher retainFlusher() {
+        if (flusher == null || !flusher.retain()) {
+            flusher = new JSharedMemFlusher(createBaseInfo(), durability, flushIntervalMs, TimeUnit.MILLISECONDS);
+            flusher.retain();
+        }
+        return flusher;
+    }
+
+    /**
+     * 初始化 topic (写入 .base)，不需要创建生产者；已存在时以文件中的布局为准
+     */
+    public void initTopic() {
+        JSharedMemBaseInfo jSharedMemBaseInfo = createBaseInfo();
+        jSharedMemBaseInfo.mmap(FileChannel.MapMode.READ_WRITE);
+        if (!jSharedMemBaseInfo.isMapped()) {
+            throw new IllegalStateException("TOPIC " + topic + " 初始化失败");
+        }
+        jSharedMemBaseInfo.flush();
+        jSharedMemBaseInfo.close();
+    }
+
+    /**
+     * topic 是否已经初始化，不会创建 topic 目录
+     */
+    public boolean exists() {
+        return Dictionary.getTopicDir(storagePolicy.getParentDir(), topic).resolve(topic + ".base").toFile().exists();
     }
 
     /**
@@ -41,7 +139,8 @@ public class JSharedMemQueue {
      * @return
      */
     public JSharedMemReader createReader() {
-        JSharedMemBaseInfo jSharedMemBaseInfo = new JSharedMemBaseInfo(topic, msgMaxSize, capacity); // 基础信息
+        checkUnpartitioned("createPartitionedReader");
+        JSharedMemBaseInfo jSharedMemBaseInfo = createBaseInfo(); // 基础信息
         return new JSharedMemReader(jSharedMemBaseInfo).needCleanFile();
     }
 
@@ -52,8 +151,342 @@ public class JSharedMemQueue {
      * @return
      */
     public JSharedMemReader createReader(String group) {
-        JSharedMemBaseInfo jSharedMemBaseInfo = new JSharedMemBaseInfo(topic, msgMaxSize, capacity); // 基础信息
+        checkUnpartitioned("createPartitionedReader");
+        JSharedMemBaseInfo jSharedMemBaseInfo = createBaseInfo(); // 基础信息
         return new JSharedMemReader(jSharedMemBaseInfo, group);
     }
 
+    /**
+     * 创建按 key 保序的并行分发器，key 为 SMG 的 tag，topic 需要开启 tag
+     *
+     * @param lanes 通道数 (并行度)
+     */
+    public JSharedMemDispatcher createDispatcher(String group, int lanes, JSharedMemDispatcher.Handler handler) {
+        JSharedMemReader reader = createReader(group);
+        if (!reader.isTagged()) {
+            reader.close();
+            throw new IllegalStateException("当前 topic 没有开启 tag，请指定 keyFunction");
+        }
+        return new JSharedMemDispatcher(reader, lanes, JSharedMemSegment::getTag, handler).ownReader();
+    }
+
+    /**
+     * @param keyFunction 从 SMG 中取出 key (例如解析内容中的实体 id)
+     */
+    public JSharedMemDispatcher createDispatcher(String group, int lanes, ToLongFunction<JSharedMemSegment> keyFunction, JSharedMemDispatcher.Handler handler) {
+        return new JSharedMemDispatcher(createReader(group), lanes, keyFunction, handler).ownReader();
+    }
+
+    /**
+     * 启动冷车厢归档线程，调用方负责关闭
+     *
+     * @param interval 检查周期
+     */
+    public JSharedMemArchiver createArchiver(long interval, TimeUnit timeUnit) {
+        return new JSharedMemArchiver(createBaseInfo(), interval, timeUnit);
+    }
+
+    /**
+     * 启动延迟消息调度器，把到期的延迟消息写入当前 topic，同一个 topic 只能有一个调度器
+     */
+    public JSharedMemDelayScheduler createDelayScheduler() {
+        return createDelayScheduler(JSharedMemDelayScheduler.DEF_TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param tick 时间轮刻度，也是调度线程的检查周期
+     */
+    public JSharedMemDelayScheduler createDelayScheduler(long tick, TimeUnit timeUnit) {
+        checkUnpartitioned("partition(index).createDelayScheduler");
+        JSharedMemBaseInfo jSharedMemBaseInfo = createBaseInfo();
+        jSharedMemBaseInfo.mmap(FileChannel.MapMode.READ_WRITE);
+        jSharedMemBaseInfo.flush();
+        boolean compacted = jSharedMemBaseInfo.isCompacted();
+        jSharedMemBaseInfo.close();
+        if (compacted) { // 创建生产者之前检查，不会泄漏
+            throw new IllegalStateException("压实 topic 不支持延迟消息");
+        }
+        JSharedMemProducer producer = createProducer();
+        JSharedMemBaseInfo delayBaseInfo = producer.createDelayBaseInfo();
+        FileLock schedulerLock;
+        try {
+            schedulerLock = JSharedMemDelayScheduler.lock(delayBaseInfo);
+        } catch (RuntimeException e) {
+            closeQuietly(producer);
+            throw e;
+        }
+        JSharedMemReader watermarkReader = new JSharedMemReader(producer.createDelayBaseInfo(), JSharedMemDelayScheduler.DELAY_GROUP);
+        return new JSharedMemDelayScheduler(delayBaseInfo, watermarkReader, producer, schedulerLock, Math.max(1, timeUnit.toMillis(tick)));
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 启动复制发送端，把当前 topic 持续复制到另一台主机，已复制的 offset 记录在默认 group 中
+     */
+    public JSharedMemReplicationSource createReplicationSource(InetSocketAddress target) {
+        return createReplicationSource(JSharedMemReplicationSource.DEF_GROUP, target);
+    }
+
+    /**
+     * @param group 记录已复制 offset 的 group，复制到多个接收端时每个接收端使用不同的 group
+     */
+    public JSharedMemReplicationSource createReplicationSource(String group, InetSocketAddress target) {
+        return new JSharedMemReplicationSource(createBaseInfo(), createReader(group), target, WaitStrategy.backoff());
+    }
+
+    /**
+     * 启动复制接收端，把发送端的数据写入当前 topic (布局以发送端为准)
+     *
+     * @param bindAddress 监听地址，端口为 0 时由系统分配
+     */
+    public JSharedMemReplicationSink createReplicationSink(InetSocketAddress bindAddress) {
+        return new JSharedMemReplicationSink(topic, storagePolicy, bindAddress);
+    }
+
+    /**
+     * 读取压实 topic 的当前状态 (每个 key 的最新值)
+     * 新的消费者可以先加载快照，再从 {@link JSharedMemSnapshot#getResumeOffset()} 开始消费，不需要回放整个日志
+     */
+    public JSharedMemSnapshot snapshot() {
+        JSharedMemBaseInfo jSharedMemBaseInfo = createBaseInfo();
+        jSharedMemBaseInfo.mmap(FileChannel.MapMode.READ_ONLY);
+        if (!jSharedMemBaseInfo.isMapped()) {
+            throw new IllegalStateException("TOPIC " + topic + " 不存在");
+        }
+        if (!jSharedMemBaseInfo.isCompacted()) {
+            jSharedMemBaseInfo.close();
+            throw new IllegalStateException("TOPIC " + topic + " 不是压实 topic");
+        }
+        return new JSharedMemSnapshot(jSharedMemBaseInfo, openKeyIndex(jSharedMemBaseInfo));
+    }
+
+    /**
+     * 获取分区对应的队列，每个分区有独立的 .base、车厢与 reader 文件
+     * 分区 topic 名称为 ${topic}-partition-${index}
+     */
+    public synchronized JSharedMemQueue partition(int index) {
+        if (index < 0 || index >= partitions) {
+            throw new IndexOutOfBoundsException("分区不存在: " + index + "/" + partitions);
+        }
+        if (partitionQueues == null) {
+            checkPartitions();
+            partitionQueues = new JSharedMemQueue[partitions];
+        }
+        JSharedMemQueue partitionQueue = partitionQueues[index];
+        if (partitionQueue == null) {
+            partitionQueue = new JSharedMemQueue(topic + PARTITION_SEPARATOR + index, msgMaxSize, capacity, storagePolicy);
+            partitionQueue.durability = durability;
+            partitionQueue.flushIntervalMs = flushIntervalMs;
+            partitionQueue.flags = flags;
+            partitionQueue.keySlots = keySlots;
+            partitionQueues[index] = partitionQueue;
+        }
+        return partitionQueue;
+    }
+
+    /**
+     * 创建分区生产者，按 key 哈希或轮询路由到分区
+     */
+    public JSharedMemPartitionedProducer createPartitionedProducer() {
+        JSharedMemProducer[] producers = new JSharedMemProducer[partitions];
+        for (int i = 0; i < partitions; i++) {
+            producers[i] = partition(i).createProducer();
+        }
+        return new JSharedMemPartitionedProducer(producers);
+    }
+
+    /**
+     * 创建分区 group 消费者
+     * 分区 p 分配给 p % memberCount == memberIndex 的成员，memberIndex 唯一时每个分区只有一个消费者
+     *
+     * @param memberIndex 当前成员序号 [0, memberCount)
+     * @param memberCount group 成员总数
+     */
+    public JSharedMemPartitionedReader createPartitionedReader(String group, int memberIndex, int memberCount) {
+        int[] assigned = JSharedMemPartitionedReader.assign(partitions, memberIndex, memberCount);
+        JSharedMemReader[] readers = new JSharedMemReader[assigned.length];
+        for (int i = 0; i < assigned.length; i++) {
+            readers[i] = partition(assigned[i]).createReader(group);
+        }
+        return new JSharedMemPartitionedReader(assigned, readers);
+    }
+
+    /**
+     * 分区队列的数据在各个分区 topic 中，直接读写基础 topic 的数据不会被分区读者看到
+     */
+    private void checkUnpartitioned(String replacement) {
+        if (partitions > 1) {
+            throw new IllegalStateException("TOPIC " + topic + " 有 " + partitions + " 个分区，请使用 " + replacement);
+        }
+    }
+
+    /**
+     * 分区数持久化在 ${topic}.partitions 中，与已有 topic 不一致时拒绝创建
+     * 以 CREATE_NEW 创建，多个进程同时创建时只有一个成功，其他进程读取它写入的分区数
+     */
+    private void checkPartitions() {
+        Path path = Dictionary.getAndMakeTopicDir(storagePolicy.getParentDir(), topic).resolve(topic + ".partitions");
+        try {
+            Files.writeString(path, String.valueOf(partitions), StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        } catch (FileAlreadyExistsException e) {
+            int existed = readPartitions(path);
+            if (existed != partitions) {
+                throw new IllegalStateException("TOPIC " + topic + " 已经存在 " + existed + " 个分区，当前配置为 " + partitions);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 创建者可能还没有写入内容，读到空文件时稍后重试
+     */
+    private int readPartitions(Path path) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        try {
+            while (true) {
+                String content = Files.readString(path, StandardCharsets.UTF_8).trim();
+                if (!content.isEmpty()) {
+                    return Integer.parseInt(content);
+                }
+                if (System.nanoTime() - deadline > 0) {
+                    throw new IllegalStateException("TOPIC " + topic + " 的分区文件为空: " + path);
+                }
+                Thread.onSpinWait();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public StoragePolicy getStoragePolicy() {
+        return storagePolicy;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    public static class Builder {
+        private final String topic;
+        private int msgMaxSize = ContentSize.KB_1.getSize();
+        private int capacity = DEF_CAPACITY;
+        private boolean powerOfTwoCapacity = false;
+        private StoragePolicy storagePolicy = StoragePolicy.disk();
+        private Durability durability = Durability.NONE;
+        private long flushIntervalMs = DEF_FLUSH_INTERVAL_MS;
+        private int partitions = 1;
+        private int flags;
+        private int keySlots = JSharedMemKeyIndex.DEF_SLOTS;
+
+        private Builder(String topic) {
+            this.topic = topic;
+        }
+
+        public Builder contentSize(ContentSize contentSize) {
+            this.msgMaxSize = contentSize.getSize();
+            return this;
+        }
+
+        public Builder msgMaxSize(int msgMaxSize) {
+            this.msgMaxSize = msgMaxSize;
+            return this;
+        }
+
+        public Builder capacity(int capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * 车厢容量向上取整为2的幂
+         */
+        public Builder powerOfTwoCapacity(boolean powerOfTwoCapacity) {
+            this.powerOfTwoCapacity = powerOfTwoCapacity;
+            return this;
+        }
+
+        /**
+         * 存储位置策略，默认 ${java.io.tmpdir}/JSMQ
+         */
+        public Builder storage(StoragePolicy storagePolicy) {
+            this.storagePolicy = storagePolicy;
+            return this;
+        }
+
+        /**
+         * 持久化策略，默认 NONE
+         */
+        public Builder durability(Durability durability) {
+            this.durability = durability;
+            return this;
+        }
+
+        /**
+         * @param interval PERIODIC 的刷盘周期，SYNC_BATCH 没有新请求时的最长等待时间
+         */
+        public Builder durability(Durability durability, long interval, TimeUnit timeUnit) {
+            this.durability = durability;
+            this.flushIntervalMs = Math.max(1, timeUnit.toMillis(interval));
+            return this;
+        }
+
+        /**
+         * 分区数，每个分区有独立的总偏移量与 reader offset，消除单个 CAS 字的竞争
+         */
+        public Builder partitions(int partitions) {
+            if (partitions < 1) {
+                throw new IllegalArgumentException("分区数必须大于0: " + partitions);
+            }
+            this.partitions = partitions;
+            return this;
+        }
+
+        /**
+         * SMG 头部带 8 字节 tag，读者可以只根据头部过滤
+         * SMG 总大小不变，所以单条数据的容量减少 8 字节
+         */
+        public Builder tagged(boolean tagged) {
+            this.flags = tagged ? flags | JSharedMemBaseInfo.FLAG_TAGGED : flags & ~JSharedMemBaseInfo.FLAG_TAGGED;
+            return this;
+        }
+
+        /**
+         * 压实 topic: enqueue(key, data) 的 tag 作为 key，key 索引记录每个 key 的最新 offset
+         * 归档线程只保留每个 key 的最新记录，可以通过 snapshot() 读取当前状态
+         *
+         * @param maxKeys key 索引的槽位数量 (向上取整为2的幂)，不同 key 的数量不能超过它
+         */
+        public Builder compacted(int maxKeys) {
+            this.flags |= JSharedMemBaseInfo.FLAG_TAGGED | JSharedMemBaseInfo.FLAG_COMPACTED;
+            this.keySlots = maxKeys;
+            return this;
+        }
+
+        public JSharedMemQueue build() {
+            int realCapacity = powerOfTwoCapacity ? ceilPowerOfTwo(capacity) : capacity;
+            JSharedMemQueue queue = new JSharedMemQueue(topic, msgMaxSize, realCapacity, storagePolicy);
+            queue.durability = durability;
+            queue.flushIntervalMs = flushIntervalMs;
+            queue.partitions = partitions;
+            queue.flags = flags;
+            queue.keySlots = keySlots;
+            return queue;
+        }
+    }
 }
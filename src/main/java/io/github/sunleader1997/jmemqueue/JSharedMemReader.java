@@ -1,24 +1,30 @@
 package io.github.sunleader1997.jmemqueue;
 
+import io.github.sunleader1997.jmemqueue.codec.Codec;
+import io.github.sunleader1997.jmemqueue.codec.Flyweight;
 import io.github.sunleader1997.jmemqueue.exceptions.CarriageInitFailException;
-import io.github.sunleader1997.jmemqueue.ttl.JCleaner;
+import io.github.sunleader1997.jmemqueue.storage.StoragePolicy;
 import io.github.sunleader1997.jmemqueue.ttl.TimeToLive;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongPredicate;
 
 /**
  * 读取器
  * 需要记录读取位置
  */
 public class JSharedMemReader implements AutoCloseable {
-    private static final long BASE_SIZE = 1024 * 1024;
+    private static final System.Logger LOGGER = System.getLogger(JSharedMemReader.class.getName());
     private final ThreadLocal<JSharedMemCarriage> threadLocalReadCarriage = new ThreadLocal<>();
     private final JSharedMemBaseInfo jSharedMemBaseInfo;
     private final String group;
@@ -26,11 +32,30 @@ public class JSharedMemReader implements AutoCloseable {
     private boolean needCleanFile = false;
     private TimeToLive timeToLive;
 
-    private RandomAccessFile accessFile;
-    private FileChannel channel;
+    private JSharedMemRegistry.Mapping readerMapping; // 同一个 group 在进程内共享，最后一个 reader 关闭时解除映射
     private MappedByteBuffer readerSharedMemory;
 
     private final int INDEX_READER_OFFSET = 0;
+    // tag 过滤条件，只读取 SMG 头部，不匹配的 SMG 不复制内容
+    private volatile LongPredicate tagFilter;
+    private int filterBatch = DEF_FILTER_BATCH;
+    // 每个线程批量领取的 offset 区间 [next, end)
+    private final ThreadLocal<Claim> threadLocalClaim = ThreadLocal.withInitial(Claim::new);
+
+    // group 成员表，位于 reader 文件的 offset 之后
+    private JSharedMemMembership membership;
+    private final long memberId = ThreadLocalRandom.current().nextLong();
+    private JSharedMemMembership.Ticket memberTicket; // 成员表已满时为空
+    private final LongAdder consumed = new LongAdder(); // 由心跳线程写入成员表，热路径上不写共享内存
+    private boolean closed;
+
+    public static final int DEF_FILTER_BATCH = 64;
+    /**
+     * {@link #readAt(long, SegmentHandler)} 的结果: 已交给 handler / 还没有写完 / 没有记录 (车厢已清理或已被压实)
+     */
+    public static final int READ_OK = 1;
+    public static final int READ_PENDING = 0;
+    public static final int READ_SKIPPED = -1;
 
     /**
      * 创建默认的消费者
@@ -43,26 +68,72 @@ public class JSharedMemReader implements AutoCloseable {
     public JSharedMemReader(JSharedMemBaseInfo jSharedMemBaseInfo, String group) {
         this.jSharedMemBaseInfo = jSharedMemBaseInfo; // 基础信息
         this.jSharedMemBaseInfo.mmap(FileChannel.MapMode.READ_ONLY); // 读模式
-        this.jSharedMemBaseInfo.print();
         this.group = group;
         Path carriagePath = getReaderPath();
         this.readerFile = carriagePath.toFile();
         this.mmap();
+        this.join();
     }
 
     /**
-     * 挂载数据
+     * 挂载数据，只映射 group offset 与成员表 (见 {@link JSharedMemRegistry})
      */
     public void mmap() {
         try {
-            this.accessFile = new RandomAccessFile(this.readerFile, "rw");
-            this.channel = accessFile.getChannel();
-            this.readerSharedMemory = channel.map(FileChannel.MapMode.READ_WRITE, 0, BASE_SIZE);
+            this.readerMapping = JSharedMemRegistry.acquire(this.readerFile.toPath(), FileChannel.MapMode.READ_WRITE, JSharedMemMembership.FILE_SIZE, true);
+            this.readerSharedMemory = readerMapping.buffer();
         } catch (IOException e) {
             throw new CarriageInitFailException();
         }
     }
 
+    /**
+     * 加入 group 成员表，由进程级心跳线程维持心跳
+     */
+    private void join() {
+        this.membership = new JSharedMemMembership(readerSharedMemory);
+        this.memberTicket = membership.join(ProcessHandle.current().pid(), memberId, System.currentTimeMillis());
+        if (memberTicket == null) {
+            LOGGER.log(System.Logger.Level.WARNING, "【Reader】 GROUP {0} 成员表已满，不记录成员信息", group);
+        }
+        JSharedMemHeartbeat.register(this);
+    }
+
+    /**
+     * 写入心跳，被其他进程驱逐 (例如长时间停顿) 后重新加入
+     */
+    synchronized void heartbeat(long now) {
+        if (closed) return;
+        if (memberTicket == null || !membership.heartbeat(memberTicket, now, consumed.sum())) {
+            memberTicket = membership.join(ProcessHandle.current().pid(), memberId, now);
+            if (memberTicket != null) {
+                membership.heartbeat(memberTicket, now, consumed.sum());
+            }
+        }
+    }
+
+    /**
+     * 驱逐心跳超时或进程已经退出 (同一个 PID 命名空间) 的成员，回收加入到一半的 slot，心跳线程会定期调用
+     *
+     * @return 驱逐的数量
+     */
+    public synchronized int evictStaleMembers(long timeout, TimeUnit timeUnit) {
+        if (closed) return 0;
+        return membership.evict(System.currentTimeMillis(), timeUnit.toMillis(timeout));
+    }
+
+    /**
+     * group 当前的成员 (包括其他进程)
+     */
+    public synchronized List<JSharedMemMember> members() {
+        if (closed) return Collections.emptyList();
+        return membership.members();
+    }
+
+    JSharedMemMembership getMembership() {
+        return membership;
+    }
+
     /**
      * 出队操作 - 读取数据（支持超时等待）
      * 查找当前位置，按顺序读取, 没有数据则等待
@@ -83,17 +154,230 @@ public class JSharedMemReader implements AutoCloseable {
         }
     }
 
+    /**
+     * 使用编解码直接从 SMG 内容区读取
+     *
+     * @return 队列为空时返回 null
+     */
+    public <T> T dequeue(Codec<T> codec) {
+        JSharedMemSegment segment = nextMappedSegment();
+        return segment == null ? null : codec.decode(segment);
+    }
+
+    /**
+     * 享元读取: 把 flyweight 定位到下一条数据，不分配对象
+     * 返回的 flyweight 在当前线程下一次读取之前有效
+     *
+     * @return 队列为空时返回 null
+     */
+    public <F extends Flyweight> F dequeue(F flyweight) {
+        JSharedMemSegment segment = nextMappedSegment();
+        if (segment == null) return null;
+        flyweight.wrap(segment);
+        return flyweight;
+    }
+
+    private JSharedMemSegment nextMappedSegment() {
+        if (!this.jSharedMemBaseInfo.isMapped()) {
+            this.jSharedMemBaseInfo.mmap(FileChannel.MapMode.READ_ONLY);
+            return null;
+        }
+        return getReadableSegment();
+    }
+
     public JSharedMemSegment getReadableSegment() {
+        return nextReadableSegment(1);
+    }
+
+    /**
+     * 批量读取: 一次 CAS 领取最多 limit 个 offset，逐个交给 handler
+     * 传给 handler 的 SMG 是车厢的享元，只在回调期间有效
+     *
+     * @return 交给 handler 的数量，0 表示队列已空
+     */
+    public int poll(int limit, SegmentHandler handler) {
+        if (!this.jSharedMemBaseInfo.isMapped()) {
+            this.jSharedMemBaseInfo.mmap(FileChannel.MapMode.READ_ONLY);
+            return 0;
+        }
+        int count = 0;
+        while (count < limit) {
+            JSharedMemSegment segment = nextReadableSegment(limit - count);
+            if (segment == null) break;
+            handler.onSegment(segment);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @param demand 当前线程没有已领取的 offset 时，一次领取的数量
+     */
+    private JSharedMemSegment nextReadableSegment(int demand) {
+        LongPredicate filter = this.tagFilter;
+        Claim claim = threadLocalClaim.get();
         while (true) {
-            long offset = getAndIncreaseOffset(); // cas 拉取到offset
-            if (offset < 0) return null; // 如果消费队列已空，则返回 null
+            if (claim.next >= claim.end) {
+                // 没有过滤条件时按需领取，保持 group 内的负载均衡；有过滤条件或回放压实后的归档时一次领取一批，在本地跳过
+                int batch = filter == null && !isReplayingArchive() ? demand : Math.max(demand, filterBatch);
+                if (!claimOffsets(batch, claim)) {
+                    return null; // 如果消费队列已空，则返回 null
+                }
+            }
+            long offset = claim.next;
             JSharedMemCarriage readCarriage = getReadCarriage(offset);
-            if (readCarriage.exist()) {
-                JSharedMemSegment segment = readCarriage.getSegment(offset);
-                if (!segment.isReadable()) { // 如果状态不是可读，则返回 null
-                    return null;
+            if (!readCarriage.exist()) {
+                if (isPendingCarriage(readCarriage)) {
+                    return null; // 生产者还没有创建车厢文件，下次调用时重试
+                }
+                claim.next++; // 车厢已被清理
+                continue;
+            }
+            JSharedMemSegment segment = readCarriage.getSegment(offset);
+            int state = segment.getStateAcquire();
+            if (state != JSharedMemSegment.STATE_READABLE) {
+                if (readCarriage.isArchived() || state == JSharedMemSegment.STATE_DISCARDED) {
+                    claim.next++;
+                    continue; // 归档中不存在的记录已经被压实 / 生产者已废弃，永远不会变为可读
+                }
+                // 生产者已经领取 offset 但还没有写完，offset 保留在当前线程，下次调用时重试
+                return null;
+            }
+            claim.next++;
+            if (filter != null && !filter.test(segment.getTag())) {
+                continue; // 只读取了头部，直接跳过
+            }
+            return segment;
+        }
+    }
+
+    /**
+     * 按 offset 读取，不领取 offset，也不修改 group offset，由调用方自己维护位置并 {@link #commit(long)}
+     * 用于单一领取者的场景 (例如按 key 保序的分发器)；tag 过滤条件同样生效，不匹配时返回 READ_SKIPPED
+     */
+    public int readAt(long offset, SegmentHandler handler) {
+        JSharedMemCarriage readCarriage = getReadCarriage(offset);
+        if (!readCarriage.exist()) {
+            return isPendingCarriage(readCarriage) ? READ_PENDING : READ_SKIPPED;
+        }
+        JSharedMemSegment segment = readCarriage.getSegment(offset);
+        int state = segment.getStateAcquire();
+        if (state != JSharedMemSegment.STATE_READABLE) {
+            return readCarriage.isArchived() || state == JSharedMemSegment.STATE_DISCARDED ? READ_SKIPPED : READ_PENDING;
+        }
+        LongPredicate filter = this.tagFilter;
+        if (filter != null && !filter.test(segment.getTag())) {
+            return READ_SKIPPED;
+        }
+        handler.onSegment(segment);
+        return READ_OK;
+    }
+
+    /**
+     * 提交 group offset，只前进不后退
+     */
+    public void commit(long offset) {
+        long current = AtomicVarHandle.getLong(readerSharedMemory, INDEX_READER_OFFSET);
+        while (current < offset) {
+            if (AtomicVarHandle.compareAndSetLong(readerSharedMemory, INDEX_READER_OFFSET, current, offset)) {
+                consumed.add(offset - current);
+                return;
+            }
+            current = AtomicVarHandle.getLong(readerSharedMemory, INDEX_READER_OFFSET);
+        }
+    }
+
+    /**
+     * 生产者已经领取的总偏移量，[group offset, totalOffset) 为可读范围 (末尾的 SMG 可能还没有写完)
+     */
+    public long getTotalOffset() {
+        if (!jSharedMemBaseInfo.isMapped()) { // topic 还没有被创建
+            jSharedMemBaseInfo.mmap(FileChannel.MapMode.READ_ONLY);
+            if (!jSharedMemBaseInfo.isMapped()) return 0;
+        }
+        return jSharedMemBaseInfo.readTotalOffset();
+    }
+
+    /**
+     * 是否还有数据可以读取: 当前线程还有领取后未读的 offset，或 group offset 落后于总偏移量 (末尾的 SMG 可能还没有写完)
+     */
+    public boolean hasAvailable() {
+        Claim claim = threadLocalClaim.get();
+        return claim.next < claim.end || getReaderOffset() < getTotalOffset();
+    }
+
+    /**
+     * 不存在的车厢是否为生产者正在写入的最新车厢 (领取 offset 之后、创建文件之前)
+     * 是则丢弃当前线程缓存的车厢，下次重新挂载；更早的车厢不存在说明已被清理
+     */
+    private boolean isPendingCarriage(JSharedMemCarriage readCarriage) {
+        long totalOffset = jSharedMemBaseInfo.readTotalOffset();
+        if (totalOffset > 0 && readCarriage.compareTo(totalOffset - 1) == 0) {
+            threadLocalReadCarriage.remove(); // 没有挂载任何资源，不需要 close
+            return true;
+        }
+        return false;
+    }
+
+    private boolean isReplayingArchive() {
+        JSharedMemCarriage carriage = getCurrentCarriage();
+        return carriage != null && carriage.isArchived() && carriage.compareTo(getReaderOffset()) == 0;
+    }
+
+    /**
+     * 将当前 group 的 offset 定位到指定位置 (例如快照之后)
+     * 其他线程已经领取的 offset 不受影响
+     */
+    public void seek(long offset) {
+        AtomicVarHandle.setLong(readerSharedMemory, INDEX_READER_OFFSET, offset);
+        threadLocalClaim.remove();
+    }
+
+    /**
+     * 只消费 tag 满足条件的数据，不满足的数据直接跳过（对当前 group 而言视为已消费）
+     * topic 需要开启 tag
+     *
+     * @param tagFilter 为 null 时取消过滤
+     */
+    public JSharedMemReader setTagFilter(LongPredicate tagFilter) {
+        if (tagFilter != null && !jSharedMemBaseInfo.isTagged()) {
+            throw new IllegalStateException("当前 topic 没有开启 tag");
+        }
+        this.tagFilter = tagFilter;
+        return this;
+    }
+
+    /**
+     * 有过滤条件时每次领取的 offset 数量
+     * 已领取但还没读取的 offset 属于当前线程，线程退出时这些 offset 会被跳过
+     */
+    public JSharedMemReader setFilterBatch(int filterBatch) {
+        this.filterBatch = Math.max(1, filterBatch);
+        return this;
+    }
+
+    /**
+     * 一次 CAS 领取最多 n 个 offset
+     *
+     * @return false 表示队列已空
+     */
+    private boolean claimOffsets(int n, Claim claim) {
+        while (true) {
+            long offset = getReaderOffset();
+            long limit = claim.limit;
+            if (offset >= limit) {
+                limit = jSharedMemBaseInfo.readTotalOffset();
+                claim.limit = limit;
+                if (offset >= limit) {
+                    return false;
                 }
-                return segment;
+            }
+            long end = Math.min(offset + n, limit);
+            if (AtomicVarHandle.compareAndSetLong(readerSharedMemory, INDEX_READER_OFFSET, offset, end)) {
+                consumed.add(end - offset);
+                claim.next = offset;
+                claim.end = end;
+                return true;
             }
         }
     }
@@ -105,13 +389,21 @@ public class JSharedMemReader implements AutoCloseable {
      * @return -1 表示队列已空
      */
     public long getAndIncreaseOffset() {
+        Claim claim = threadLocalClaim.get();
         while (true) {
             long offset = getReaderOffset();
-            if (offset >= jSharedMemBaseInfo.readTotalOffset()) {
-                return -1;
+            if (offset >= claim.limit) {
+                long totalOffset = jSharedMemBaseInfo.readTotalOffset();
+                claim.limit = totalOffset;
+                if (offset >= totalOffset) {
+                    return -1;
+                }
             }
             boolean suc = AtomicVarHandle.compareAndSetLong(readerSharedMemory, INDEX_READER_OFFSET, offset, offset + 1);
-            if (suc) return offset; // false 时说明offset被其他线程获取到
+            if (suc) { // false 时说明offset被其他线程获取到
+                consumed.increment();
+                return offset;
+            }
         }
     }
 
@@ -135,8 +427,11 @@ public class JSharedMemReader implements AutoCloseable {
         }
     }
 
+    /**
+     * CAS 之前的预读，读到旧值只会导致 CAS 失败重试，opaque 即可
+     */
     public long getReaderOffset() {
-        return AtomicVarHandle.getLong(readerSharedMemory, INDEX_READER_OFFSET);
+        return AtomicVarHandle.getLongOpaque(readerSharedMemory, INDEX_READER_OFFSET);
     }
 
     public JSharedMemCarriage getCurrentCarriage() {
@@ -144,7 +439,7 @@ public class JSharedMemReader implements AutoCloseable {
     }
 
     public Path getReaderPath() {
-        return Dictionary.getTopicDir(jSharedMemBaseInfo.getTopic()).resolve(group + ".reader");
+        return jSharedMemBaseInfo.getTopicDir().resolve(group + ".reader");
     }
 
     /**
@@ -163,29 +458,85 @@ public class JSharedMemReader implements AutoCloseable {
         this.jSharedMemBaseInfo.print();
     }
 
+    public String getTopic() {
+        return jSharedMemBaseInfo.getTopic();
+    }
+
+    StoragePolicy getStoragePolicy() {
+        return jSharedMemBaseInfo.getStoragePolicy();
+    }
+
+    /**
+     * topic 不存在时返回 false
+     */
+    public boolean isTagged() {
+        return jSharedMemBaseInfo.isMapped() && jSharedMemBaseInfo.isTagged();
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    /**
+     * 批量读取的回调
+     */
+    @FunctionalInterface
+    public interface SegmentHandler {
+        void onSegment(JSharedMemSegment segment);
+    }
+
+    /**
+     * 线程领取的 offset 区间
+     */
+    private static final class Claim {
+        private long next;
+        private long end;
+        // 当前线程最近一次观察到的生产者总偏移量，只有追上它时才重新读取 .base 的热数据行
+        // 总偏移量只增不减，所以旧值只会多读一次，不会越界；每个线程独占，消费线程之间不共享写入的缓存行
+        private long limit;
+    }
+
+    /**
+     * 释放当前线程挂载的车厢与领取的 offset，消费线程退出前调用
+     * 已领取但还没读取的 offset 会被跳过
+     */
+    public void detach() {
+        JSharedMemCarriage readCarriage = threadLocalReadCarriage.get();
+        if (readCarriage != null) {
+            threadLocalReadCarriage.remove();
+            readCarriage.close();
+        }
+        threadLocalClaim.remove();
+    }
+
     /**
      * 删除持久化文件
      */
     public void clean() {
+        JSharedMemRegistry.evict(this.readerFile.toPath());
         boolean remove = this.readerFile.delete();
-        System.out.println("DELETE READER: " + this.readerFile.getName() + " STATUS " + remove);
+        LOGGER.log(System.Logger.Level.DEBUG, "DELETE READER: {0} STATUS {1}", this.readerFile.getName(), remove);
     }
 
     @Override
     public void close() {
         try {
-            System.out.println("【Reader】 执行销毁");
+            LOGGER.log(System.Logger.Level.DEBUG, "【Reader】 执行销毁 GROUP: {0}", group);
+            JSharedMemHeartbeat.unregister(this);
+            synchronized (this) { // 心跳线程不会再访问映射
+                this.closed = true;
+                if (memberTicket != null) {
+                    membership.leave(memberTicket);
+                }
+            }
             this.threadLocalReadCarriage.remove();
-            if (this.readerSharedMemory != null) {
+            this.threadLocalClaim.remove();
+            if (this.readerMapping != null) {
                 this.readerSharedMemory.force();
+                this.readerMapping.release();
+                this.readerMapping = null;
             }
-            if (this.accessFile != null) {
-                this.accessFile.close();
-            }
-            if (this.channel != null) {
-                this.channel.close();
-            }
-            JCleaner.clean(this.readerSharedMemory);
+            this.jSharedMemBaseInfo.close();
             if (this.needCleanFile) {
                 this.clean();
             }
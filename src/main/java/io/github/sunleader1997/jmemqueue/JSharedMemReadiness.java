@@ -0,0 +1,92 @@
+package io.github.sunleader1997.jmemqueue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 就绪位图: 同一个存储目录下所有 topic 共享的 ${parentDir}/.readiness 文件
+ * <pre>
+ * [0,128)    就绪纪元: 任意一位从 0 变为 1 时加一，选择器空闲时只需要读取这一个值
+ * [128, ...) 就绪位图: 每个 topic 按名称哈希到一位，生产者发布数据后置位，选择器检查前清零
+ * </pre>
+ * 位图只用来减少纪元的推进次数，不表示哪个 topic 有数据: 一位被多个选择器、多个 topic 共享，
+ * 任何一方清零都不会让其他选择器丢失唤醒，因为选择器在纪元推进后会检查自己注册的全部 reader
+ * 没有选择器时所有位保持置位，生产者每次只有一次读取，不写共享内存
+ * 映射在进程内共享，不会解除 (文件只有 8KB)
+ */
+final class JSharedMemReadiness {
+    public static final String READINESS_FILE = ".readiness";
+    private static final int BITS = 1 << 16;
+    private static final int INDEX_EPOCH = 0;
+    private static final int INDEX_BITMAP = JSharedMemBaseInfo.CACHE_LINE_PAD;
+    private static final int FILE_SIZE = INDEX_BITMAP + BITS / Byte.SIZE;
+    private static final Map<Path, JSharedMemReadiness> INSTANCES = new ConcurrentHashMap<>();
+
+    private final MappedByteBuffer memory;
+
+    private JSharedMemReadiness(Path path) {
+        try {
+            Files.createDirectories(path.getParent());
+        } catch (IOException e) {
+            throw new IllegalStateException("就绪位图目录创建失败: " + path, e);
+        }
+        try (RandomAccessFile accessFile = new RandomAccessFile(path.toFile(), "rw");
+             FileChannel channel = accessFile.getChannel()) {
+            this.memory = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+        } catch (IOException e) {
+            throw new IllegalStateException("就绪位图挂载失败: " + path, e);
+        }
+    }
+
+    static JSharedMemReadiness of(Path parentDir) {
+        return INSTANCES.computeIfAbsent(parentDir.resolve(READINESS_FILE), JSharedMemReadiness::new);
+    }
+
+    static int bitOf(String topic) {
+        long h = topic.hashCode() * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> (Long.SIZE - Integer.numberOfTrailingZeros(BITS)));
+    }
+
+    private static int wordIndex(int bit) {
+        return INDEX_BITMAP + (bit >>> 6) * Long.BYTES;
+    }
+
+    /**
+     * 生产者推进总偏移量之后调用
+     * 已经置位时只有一次读取 (没有选择器或 topic 繁忙时的常态)，只有 0 -> 1 时才写共享内存并推进纪元
+     * 总偏移量的 getAndAdd / CAS 与这里的 volatile 读取同属同步顺序，不需要额外的屏障:
+     * 要么这次读取看到选择器的清零，要么选择器清零之后的检查看到新的总偏移量
+     */
+    void signal(int bit) {
+        int index = wordIndex(bit);
+        long mask = 1L << bit;
+        if ((AtomicVarHandle.getLongVolatile(memory, index) & mask) != 0) {
+            return;
+        }
+        if ((AtomicVarHandle.getAndBitwiseOrLong(memory, index, mask) & mask) == 0) {
+            AtomicVarHandle.getAndAddLong(memory, INDEX_EPOCH, 1);
+        }
+    }
+
+    /**
+     * 清零，之后生产者发布数据时会重新推进纪元
+     * 返回值不表示 topic 是否有数据 (可能已经被其他选择器清零)，调用方在清零之后需要用全屏障隔开对 reader 的检查
+     */
+    void clear(int bit) {
+        int index = wordIndex(bit);
+        long mask = 1L << bit;
+        if ((AtomicVarHandle.getLongVolatile(memory, index) & mask) != 0) {
+            AtomicVarHandle.getAndBitwiseAndLong(memory, index, ~mask);
+        }
+    }
+
+    long epoch() {
+        return AtomicVarHandle.getLongVolatile(memory, INDEX_EPOCH);
+    }
+}
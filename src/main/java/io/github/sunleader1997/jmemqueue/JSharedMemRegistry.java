@@ -0,0 +1,105 @@
+package io.github.sunleader1997.jmemqueue;
+
+import io.github.sunleader1997.jmemqueue.ttl.JCleaner;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 进程级控制文件注册表: 同一个 .base / .reader 文件在进程内只映射一次，生产者、读者等句柄共享映射并计数
+ * 映射之后立即关闭文件，不占用文件描述符；第一次使用时才映射
+ * 读写映射可以满足只读请求，已有只读映射时请求读写会升级为新的读写映射
+ * 计数归零后从注册表中移除，unmapOnRelease 的映射 (reader 文件) 同时解除映射，其余 (.base) 交给 GC
+ */
+public final class JSharedMemRegistry {
+    private static final Map<Path, Mapping> MAPPINGS = new HashMap<>();
+
+    private JSharedMemRegistry() {
+    }
+
+    /**
+     * 获取文件的共享映射，文件不存在且只读时抛出异常
+     */
+    static synchronized Mapping acquire(Path path, FileChannel.MapMode mode, long size, boolean unmapOnRelease) throws IOException {
+        Path key = path.toAbsolutePath().normalize();
+        Mapping mapping = MAPPINGS.get(key);
+        boolean writable = FileChannel.MapMode.READ_WRITE.equals(mode);
+        if (mapping == null || (writable && !mapping.writable) || mapping.size < size) {
+            mapping = new Mapping(key, map(key, mode, size), writable, size, unmapOnRelease);
+            MAPPINGS.put(key, mapping); // 被替换的旧映射由持有者各自释放
+        }
+        mapping.refs++;
+        return mapping;
+    }
+
+    private static MappedByteBuffer map(Path path, FileChannel.MapMode mode, long size) throws IOException {
+        try (RandomAccessFile accessFile = new RandomAccessFile(path.toFile(), FileChannel.MapMode.READ_WRITE.equals(mode) ? "rw" : "r");
+             FileChannel channel = accessFile.getChannel()) {
+            return channel.map(mode, 0, size);
+        }
+    }
+
+    private static synchronized void release(Mapping mapping) {
+        if (--mapping.refs > 0) return;
+        if (MAPPINGS.get(mapping.path) == mapping) {
+            MAPPINGS.remove(mapping.path);
+        }
+        if (mapping.unmapOnRelease) {
+            JCleaner.clean(mapping.buffer);
+        }
+    }
+
+    /**
+     * 删除 topic 时移除目录下的映射，之后同名的新 topic 重新映射新文件
+     */
+    static synchronized void evict(Path dir) {
+        Path prefix = dir.toAbsolutePath().normalize();
+        Iterator<Map.Entry<Path, Mapping>> iterator = MAPPINGS.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getKey().startsWith(prefix)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 当前进程中的控制文件映射数量，只与 topic / group 数量有关，与句柄数量无关
+     */
+    public static synchronized int mappingCount() {
+        return MAPPINGS.size();
+    }
+
+    static final class Mapping {
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private final boolean writable;
+        private final long size;
+        private final boolean unmapOnRelease;
+        private int refs;
+
+        private Mapping(Path path, MappedByteBuffer buffer, boolean writable, long size, boolean unmapOnRelease) {
+            this.path = path;
+            this.buffer = buffer;
+            this.writable = writable;
+            this.size = size;
+            this.unmapOnRelease = unmapOnRelease;
+        }
+
+        MappedByteBuffer buffer() {
+            return buffer;
+        }
+
+        /**
+         * 每次 acquire 对应一次 release
+         */
+        void release() {
+            JSharedMemRegistry.release(this);
+        }
+    }
+}
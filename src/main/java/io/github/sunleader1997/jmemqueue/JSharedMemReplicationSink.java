@@ -0,0 +1,241 @@
+package io.github.sunleader1997.jmemqueue;
+
+import io.github.sunleader1997.jmemqueue.storage.StoragePolicy;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static io.github.sunleader1997.jmemqueue.JSharedMemReplicationSource.readFully;
+import static io.github.sunleader1997.jmemqueue.JSharedMemReplicationSource.writeFully;
+
+/**
+ * 复制接收端: 把 {@link JSharedMemReplicationSource} 发送的车厢字节区间写入相同布局的本地 topic
+ * 本地 topic 按握手中的车厢容量、数据元容量、特性标记创建，已存在且布局不一致时拒绝连接
+ * 每一帧写入车厢文件后再推进 .base 总偏移量并回复确认，本地读者 (包括其他进程) 可以像消费普通 topic 一样消费副本
+ * 帧必须紧接本地总偏移量并落在车厢映射范围内，否则断开连接，由发送端从本地总偏移量重新发送
+ * 同一时间只接受一个发送端，副本 topic 不应再有本地生产者
+ * 内容通过文件写入，存储策略需要支持 write (disk / tmpfs)，压实 topic 的 key 索引不会被复制
+ */
+public class JSharedMemReplicationSink implements AutoCloseable {
+    private static final System.Logger LOGGER = System.getLogger(JSharedMemReplicationSink.class.getName());
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final String topic;
+    private final StoragePolicy storagePolicy;
+    private final ServerSocketChannel serverChannel;
+    private final Thread thread;
+    private final ByteBuffer header = ByteBuffer.allocateDirect(JSharedMemReplicationSource.FRAME_HEADER_SIZE);
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ByteBuffer ack = ByteBuffer.allocateDirect(Long.BYTES);
+    // 推进总偏移量后通知本地选择器
+    private final JSharedMemReadiness readiness;
+    private final int readinessBit;
+    private volatile boolean running = true;
+    private volatile SocketChannel socket;
+    private volatile JSharedMemBaseInfo jSharedMemBaseInfo; // 第一次握手时按发送端的布局创建
+    // 以下字段只由接收线程访问
+    private long carriageIndex = -1;
+    private FileChannel carriageChannel;
+
+    JSharedMemReplicationSink(String topic, StoragePolicy storagePolicy, InetSocketAddress bindAddress) {
+        this.topic = topic;
+        this.storagePolicy = storagePolicy;
+        this.readiness = JSharedMemReadiness.of(storagePolicy.getParentDir());
+        this.readinessBit = JSharedMemReadiness.bitOf(topic);
+        try {
+            this.serverChannel = ServerSocketChannel.open().bind(bindAddress);
+        } catch (IOException e) {
+            throw new IllegalStateException("复制接收端监听失败: " + bindAddress, e);
+        }
+        this.thread = new Thread(this::run, "JSMQ-replica-" + topic);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void run() {
+        while (running) {
+            try (SocketChannel channel = serverChannel.accept()) {
+                this.socket = channel;
+                if (handshake(channel)) {
+                    LOGGER.log(System.Logger.Level.INFO, "【REPLICA】ACCEPTED {0} TOPIC: {1}", channel.getRemoteAddress(), topic);
+                    receive(channel);
+                }
+            } catch (IOException e) {
+                if (running) {
+                    LOGGER.log(System.Logger.Level.WARNING, "【REPLICA】连接中断 TOPIC " + topic, e);
+                }
+            } finally {
+                this.socket = null;
+                closeCarriage();
+            }
+        }
+    }
+
+    /**
+     * 按发送端的布局创建本地 topic，回复本地总偏移量作为发送端继续的位置
+     */
+    private boolean handshake(SocketChannel channel) throws IOException {
+        ByteBuffer handshake = ByteBuffer.allocate(JSharedMemReplicationSource.HANDSHAKE_SIZE);
+        readFully(channel, handshake);
+        handshake.flip();
+        if (handshake.getInt() != JSharedMemReplicationSource.MAGIC || handshake.getInt() != JSharedMemReplicationSource.VERSION) {
+            throw new IOException("无法识别的复制握手");
+        }
+        long capacity = handshake.getLong();
+        int msgMaxSize = handshake.getInt();
+        int flags = handshake.getInt();
+        if (jSharedMemBaseInfo == null) {
+            jSharedMemBaseInfo = new JSharedMemBaseInfo(topic, msgMaxSize, (int) capacity, storagePolicy, flags);
+            jSharedMemBaseInfo.mmap(FileChannel.MapMode.READ_WRITE);
+            jSharedMemBaseInfo.flush();
+        }
+        boolean matched = jSharedMemBaseInfo.readCarriage() == capacity
+                && jSharedMemBaseInfo.readMsgMaxSize() == msgMaxSize
+                && jSharedMemBaseInfo.readFlags() == flags;
+        ByteBuffer reply = ByteBuffer.allocate(Long.BYTES);
+        reply.putLong(matched ? jSharedMemBaseInfo.readTotalOffset() : -1).flip();
+        writeFully(channel, reply);
+        if (!matched) {
+            LOGGER.log(System.Logger.Level.ERROR, "【REPLICA】TOPIC {0} 布局与发送端不一致，拒绝复制", topic);
+        }
+        return matched;
+    }
+
+    private void receive(SocketChannel channel) throws IOException {
+        while (running) {
+            header.clear();
+            readFully(channel, header);
+            header.flip();
+            long index = header.getLong();
+            long position = header.getLong();
+            long length = header.getLong();
+            long totalOffset = header.getLong();
+            validate(index, position, length, totalOffset);
+            if (length > 0) {
+                FileChannel file = openCarriage(index);
+                long remaining = length;
+                while (remaining > 0) {
+                    buffer.clear().limit((int) Math.min(BUFFER_SIZE, remaining));
+                    readFully(channel, buffer);
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        position += file.write(buffer, position);
+                    }
+                    remaining -= buffer.limit();
+                }
+            }
+            // 车厢内容写入之后才推进总偏移量
+            jSharedMemBaseInfo.advanceTotalOffset(totalOffset);
+            readiness.signal(readinessBit);
+            ack.clear();
+            ack.putLong(jSharedMemBaseInfo.readTotalOffset()).flip();
+            writeFully(channel, ack);
+        }
+    }
+
+    /**
+     * 数据帧必须从本地总偏移量对应的 SMG 开始，到新总偏移量对应的 SMG 结束，并且不超过车厢的映射大小
+     * 跳过帧 (已清理或归档的车厢) 没有内容，新总偏移量不能越过当前车厢
+     */
+    private void validate(long index, long position, long length, long totalOffset) throws IOException {
+        long capacity = jSharedMemBaseInfo.readCarriage();
+        long current = jSharedMemBaseInfo.readTotalOffset();
+        long sgmSize = jSharedMemBaseInfo.readMsgMaxSize() + JSharedMemSegment.CONTENT_OFFSET;
+        long mappedSize = jSharedMemBaseInfo.getStoragePolicy().alignCarriageSize(capacity * sgmSize);
+        boolean valid = index >= 0
+                && index == current / capacity
+                && totalOffset > current
+                && totalOffset <= (index + 1) * capacity
+                && position >= 0 && length >= 0 && length <= mappedSize - position;
+        if (valid && length > 0) {
+            long first = current - index * capacity;
+            long last = totalOffset - index * capacity;
+            valid = position == first * sgmSize && length == (last - first) * sgmSize;
+        } else if (valid) {
+            valid = position == 0;
+        }
+        if (!valid) {
+            throw new IOException("非法的复制帧: 车厢 " + index + " [" + position + ", +" + length + ") 总偏移量 "
+                    + totalOffset + " 本地总偏移量 " + current);
+        }
+    }
+
+    /**
+     * 车厢文件先扩展到映射大小，读者按整个车厢映射时不会越过文件末尾
+     */
+    private FileChannel openCarriage(long index) throws IOException {
+        if (index == carriageIndex && carriageChannel != null) {
+            return carriageChannel;
+        }
+        closeCarriage();
+        JSharedMemCarriage carriage = new JSharedMemCarriage(jSharedMemBaseInfo, index * jSharedMemBaseInfo.readCarriage(), null);
+        Path path = carriage.getCarriagePath(index);
+        FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long mappedSize = carriage.getMappedSize();
+        if (file.size() < mappedSize) {
+            file.write(ByteBuffer.allocate(1), mappedSize - 1); // 稀疏文件，未写入的 SMG 状态为 0 (未写完)
+        }
+        this.carriageChannel = file;
+        this.carriageIndex = index;
+        return file;
+    }
+
+    private void closeCarriage() {
+        try {
+            if (carriageChannel != null) {
+                carriageChannel.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        carriageChannel = null;
+        carriageIndex = -1;
+    }
+
+    /**
+     * 监听端口，绑定端口为 0 时由系统分配
+     */
+    public int getPort() {
+        try {
+            return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 已经写入本地的总偏移量
+     */
+    public long getTotalOffset() {
+        JSharedMemBaseInfo baseInfo = this.jSharedMemBaseInfo;
+        return baseInfo == null ? 0 : baseInfo.readTotalOffset();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            serverChannel.close();
+            SocketChannel channel = this.socket;
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (jSharedMemBaseInfo != null) {
+            jSharedMemBaseInfo.close();
+        }
+    }
+}
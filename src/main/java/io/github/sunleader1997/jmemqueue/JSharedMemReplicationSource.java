@@ -0,0 +1,277 @@
+package io.github.sunleader1997.jmemqueue;
+
+import io.github.sunleader1997.jmemqueue.wait.WaitStrategy;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 复制发送端: 把 topic 的车厢字节区间原样发送到另一台主机的 {@link JSharedMemReplicationSink}
+ * <pre>
+ * 握手 (发送端 -> 接收端): MAGIC(4) VERSION(4) 车厢容量(8) 数据元容量(4) 特性标记(4)
+ * 握手 (接收端 -> 发送端): 接收端总偏移量(8)，布局不一致时为 -1
+ * 数据帧 (发送端 -> 接收端): 车厢索引(8) 字节起点(8) 字节长度(8) 新总偏移量(8) + 车厢文件内容
+ * 确认 (接收端 -> 发送端): 每一帧写入之后回复接收端总偏移量(8)
+ * </pre>
+ * 每一帧是同一车厢内连续已发布的 SMG，内容通过 FileChannel.transferTo (sendfile) 直接从页缓存发送，没有逐条消息的开销
+ * 只有接收端确认过的 offset 才像普通 group 一样记录在 .reader 文件中 (写入 socket 不算)，归档不会越过还没确认的车厢
+ * 重连时以接收端的总偏移量为准继续发送
+ */
+public class JSharedMemReplicationSource implements AutoCloseable {
+    private static final System.Logger LOGGER = System.getLogger(JSharedMemReplicationSource.class.getName());
+    public static final String DEF_GROUP = "replication";
+    static final int MAGIC = 0x4A534D52; // JSMR
+    static final int VERSION = 1;
+    static final int HANDSHAKE_SIZE = 24;
+    static final int FRAME_HEADER_SIZE = 32;
+    private static final long RECONNECT_INTERVAL_MS = 1000;
+
+    private final JSharedMemBaseInfo jSharedMemBaseInfo;
+    private final JSharedMemReader reader;
+    private final InetSocketAddress target;
+    private final WaitStrategy waitStrategy;
+    private final Thread thread;
+    private final ByteBuffer header = ByteBuffer.allocateDirect(FRAME_HEADER_SIZE);
+    private volatile boolean running = true;
+    private volatile SocketChannel socket;
+    private volatile long ackedOffset; // 接收端确认的总偏移量，由确认线程写入
+    // 以下字段只由发送线程访问
+    private JSharedMemCarriage carriage;
+    private FileChannel carriageChannel;
+
+    JSharedMemReplicationSource(JSharedMemBaseInfo jSharedMemBaseInfo, JSharedMemReader reader, InetSocketAddress target, WaitStrategy waitStrategy) {
+        this.jSharedMemBaseInfo = jSharedMemBaseInfo;
+        this.jSharedMemBaseInfo.mmap(FileChannel.MapMode.READ_ONLY);
+        this.reader = reader;
+        this.target = target;
+        this.waitStrategy = waitStrategy;
+        this.thread = new Thread(this::run, "JSMQ-replication-" + jSharedMemBaseInfo.getTopic());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void run() {
+        while (running) {
+            try (SocketChannel channel = SocketChannel.open()) {
+                this.socket = channel;
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.connect(target);
+                long cursor = handshake(channel);
+                if (cursor < 0) {
+                    LOGGER.log(System.Logger.Level.ERROR, "【REPLICATION】接收端布局与 TOPIC {0} 不一致: {1}", jSharedMemBaseInfo.getTopic(), target);
+                } else {
+                    LOGGER.log(System.Logger.Level.INFO, "【REPLICATION】CONNECTED {0} OFFSET BEGIN : {1}", target, cursor);
+                    reader.seek(cursor);
+                    ackedOffset = cursor;
+                    Thread acknowledger = new Thread(() -> receiveAcks(channel), "JSMQ-replication-ack-" + jSharedMemBaseInfo.getTopic());
+                    acknowledger.setDaemon(true);
+                    acknowledger.start();
+                    try {
+                        stream(channel, cursor, acknowledger);
+                    } finally {
+                        shutdownInput(channel); // 打断阻塞中的确认读取
+                        joinQuietly(acknowledger);
+                        reader.commit(ackedOffset);
+                    }
+                }
+            } catch (IOException e) {
+                if (running) {
+                    LOGGER.log(System.Logger.Level.WARNING, "【REPLICATION】连接中断 " + target, e);
+                }
+            } finally {
+                this.socket = null;
+                closeCarriage();
+            }
+            if (running) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(RECONNECT_INTERVAL_MS));
+            }
+        }
+    }
+
+    private long handshake(SocketChannel channel) throws IOException {
+        ByteBuffer handshake = ByteBuffer.allocate(HANDSHAKE_SIZE);
+        handshake.putInt(MAGIC)
+                .putInt(VERSION)
+                .putLong(jSharedMemBaseInfo.readCarriage())
+                .putInt(jSharedMemBaseInfo.readMsgMaxSize())
+                .putInt(jSharedMemBaseInfo.readFlags())
+                .flip();
+        writeFully(channel, handshake);
+        ByteBuffer reply = ByteBuffer.allocate(Long.BYTES);
+        readFully(channel, reply);
+        return reply.flip().getLong();
+    }
+
+    /**
+     * 每轮发送 cursor 所在车厢中连续已发布的 SMG，遇到还没写完的 SMG 时等待
+     * 已发送但还没确认的 offset 不提交，连接中断后从接收端的总偏移量重新发送
+     */
+    private void stream(SocketChannel channel, long cursor, Thread acknowledger) throws IOException {
+        int idle = 0;
+        while (running) {
+            if (!acknowledger.isAlive()) {
+                throw new EOFException("接收端连接已关闭");
+            }
+            reader.commit(ackedOffset);
+            long totalOffset = jSharedMemBaseInfo.readTotalOffset();
+            long next = cursor < totalOffset ? send(channel, cursor, totalOffset) : cursor;
+            if (next > cursor) {
+                cursor = next;
+                idle = 0;
+            } else {
+                waitStrategy.idle(idle);
+                if (idle < Integer.MAX_VALUE) idle++;
+            }
+        }
+    }
+
+    /**
+     * 读取接收端的确认，连接关闭时结束
+     */
+    private void receiveAcks(SocketChannel channel) {
+        ByteBuffer ack = ByteBuffer.allocate(Long.BYTES);
+        try {
+            while (running) {
+                ack.clear();
+                readFully(channel, ack);
+                long offset = ack.flip().getLong();
+                if (offset > ackedOffset) {
+                    ackedOffset = offset;
+                }
+            }
+        } catch (IOException e) {
+            // 连接关闭，发送线程会重新连接
+        }
+    }
+
+    private static void shutdownInput(SocketChannel channel) {
+        try {
+            channel.shutdownInput();
+        } catch (IOException e) {
+            // 连接已经关闭，确认线程已经结束或即将结束
+        }
+    }
+
+    private static void joinQuietly(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return 发送之后的 cursor，没有可发送的内容时不变
+     */
+    private long send(SocketChannel channel, long cursor, long totalOffset) throws IOException {
+        if (carriage == null || carriage.compareTo(cursor) != 0) {
+            closeCarriage();
+            carriage = new JSharedMemCarriage(jSharedMemBaseInfo, cursor, null).mmap(FileChannel.MapMode.READ_ONLY);
+        }
+        long end = Math.min(totalOffset, carriage.getEndOffset());
+        if (!carriage.exist() || carriage.isArchived()) {
+            if (!carriage.exist() && totalOffset <= carriage.getEndOffset()) {
+                closeCarriage(); // 生产者还没有创建车厢文件，下次重新挂载
+                return cursor;
+            }
+            // 已被清理或归档的车厢没有原始字节可以发送，接收端直接跳过 (读者视为已清理)
+            LOGGER.log(System.Logger.Level.WARNING, "【REPLICATION】车厢 {0} 已清理或归档，跳过 [{1}, {2})", carriage.getCarriageIndex(), cursor, end);
+            writeHeader(channel, carriage.getCarriageIndex(), 0, 0, end);
+            return end;
+        }
+        long to = cursor;
+        while (to < end && carriage.getSegment(to).isPublished()) {
+            to++;
+        }
+        if (to == cursor) return cursor;
+        if (carriageChannel == null) {
+            carriageChannel = FileChannel.open(carriage.getCarriageFile().toPath(), StandardOpenOption.READ);
+        }
+        long byteStart = carriage.byteOffsetOf(cursor);
+        long length = carriage.byteOffsetOf(to - 1) + segmentSize() - byteStart;
+        writeHeader(channel, carriage.getCarriageIndex(), byteStart, length, to);
+        long position = byteStart;
+        long remaining = length;
+        while (remaining > 0) {
+            long sent = carriageChannel.transferTo(position, remaining, channel);
+            position += sent;
+            remaining -= sent;
+        }
+        return to;
+    }
+
+    private int segmentSize() {
+        return jSharedMemBaseInfo.readMsgMaxSize() + JSharedMemSegment.CONTENT_OFFSET;
+    }
+
+    private void writeHeader(SocketChannel channel, long carriageIndex, long byteStart, long length, long totalOffset) throws IOException {
+        header.clear();
+        header.putLong(carriageIndex).putLong(byteStart).putLong(length).putLong(totalOffset).flip();
+        writeFully(channel, header);
+    }
+
+    static void writeFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("连接已关闭");
+            }
+        }
+    }
+
+    private void closeCarriage() {
+        try {
+            if (carriageChannel != null) {
+                carriageChannel.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        carriageChannel = null;
+        if (carriage != null) {
+            carriage.close();
+            carriage = null;
+        }
+    }
+
+    /**
+     * 接收端已经确认写入的 offset
+     */
+    public long getReplicatedOffset() {
+        return reader.getReaderOffset();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        SocketChannel channel = this.socket;
+        if (channel != null) {
+            try {
+                channel.close(); // 打断阻塞中的发送
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        reader.close();
+        jSharedMemBaseInfo.close();
+    }
+}
@@ -0,0 +1,347 @@
+package io.github.sunleader1997.jmemqueue;
+
+import io.github.sunleader1997.jmemqueue.enums.ContentSize;
+import io.github.sunleader1997.jmemqueue.exceptions.RpcRemoteException;
+import io.github.sunleader1997.jmemqueue.storage.StoragePolicy;
+import io.github.sunleader1997.jmemqueue.ttl.JCleaner;
+import io.github.sunleader1997.jmemqueue.wait.WaitStrategy;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于共享内存 topic 的请求/应答
+ * <pre>
+ * 请求 topic: ${service}                       tag = clientId(高32位) | 序号(低31位)
+ * 应答 topic: ${service}-reply-${clientId}      tag 与请求相同，第31位为 1 表示服务端异常 (内容为异常描述)
+ * </pre>
+ * 关联 id 位于 SMG 头部的 tag 中，请求与应答内容都不需要额外的包装
+ */
+public class JSharedMemRpc {
+    public static final String REPLY_SEPARATOR = "-reply-";
+    public static final String SERVER_GROUP = "rpc-server";
+    private static final String CLIENTS_FILE = "rpc.clients";
+    private static final long ERROR_BIT = 1L << 31;
+    private static final int SEQUENCE_MASK = 0x7FFFFFFF;
+    public static final long EVICT_INTERVAL_MS = 1000; // 服务端检查应答 topic 是否已被删除的周期
+
+    private final String service;
+    private final int msgMaxSize;
+    private final int capacity;
+    private final StoragePolicy storagePolicy;
+    private final WaitStrategy waitStrategy;
+
+    public JSharedMemRpc(String service) {
+        this(service, ContentSize.KB_1.getSize(), JSharedMemQueue.DEF_CAPACITY, StoragePolicy.disk(), WaitStrategy.backoff());
+    }
+
+    /**
+     * @param waitStrategy 服务端等待请求、客户端等待应答时使用；需要微秒级延迟时使用 busySpin 或 yielding
+     */
+    public JSharedMemRpc(String service, int msgMaxSize, int capacity, StoragePolicy storagePolicy, WaitStrategy waitStrategy) {
+        this.service = service;
+        this.msgMaxSize = msgMaxSize;
+        this.capacity = capacity;
+        this.storagePolicy = storagePolicy;
+        this.waitStrategy = waitStrategy;
+    }
+
+    private JSharedMemQueue queue(String topic) {
+        return JSharedMemQueue.builder(topic)
+                .msgMaxSize(msgMaxSize)
+                .capacity(capacity)
+                .storage(storagePolicy)
+                .tagged(true)
+                .build();
+    }
+
+    private String replyTopic(int clientId) {
+        return service + REPLY_SEPARATOR + clientId;
+    }
+
+    /**
+     * 启动服务端，多个服务端 (包括其他进程) 在同一个 group 中分担请求
+     *
+     * @param threads 处理请求的线程数
+     */
+    public Server serve(Handler handler, int threads) {
+        return new Server(handler, threads);
+    }
+
+    /**
+     * 连接服务，每个客户端有独立的应答 topic，关闭时删除
+     */
+    public Client connect() {
+        return new Client(allocateClientId());
+    }
+
+    /**
+     * 客户端 id 在同一个服务的所有进程内唯一，由请求 topic 目录下的计数器分配
+     */
+    private int allocateClientId() {
+        Path path = Dictionary.getAndMakeTopicDir(storagePolicy.getParentDir(), service).resolve(CLIENTS_FILE);
+        try (RandomAccessFile accessFile = new RandomAccessFile(path.toFile(), "rw");
+             FileChannel channel = accessFile.getChannel()) {
+            MappedByteBuffer counter = channel.map(FileChannel.MapMode.READ_WRITE, 0, Long.BYTES);
+            int clientId = (int) AtomicVarHandle.getAndAddLong(counter, 0, 1);
+            JCleaner.clean(counter);
+            return clientId;
+        } catch (IOException e) {
+            throw new IllegalStateException("RPC 客户端 id 分配失败: " + path, e);
+        }
+    }
+
+    /**
+     * 截断 UTF-8 文本，不会截断在多字节字符中间
+     */
+    static byte[] truncate(byte[] utf8, int maxLength) {
+        if (utf8.length <= maxLength) return utf8;
+        int length = maxLength;
+        while (length > 0 && (utf8[length] & 0xC0) == 0x80) { // 截断位置是后续字节，退回到字符开头
+            length--;
+        }
+        return Arrays.copyOf(utf8, length);
+    }
+
+    @FunctionalInterface
+    public interface Handler {
+        /**
+         * @param request 请求内容 (副本)
+         * @return 应答内容，抛出异常时客户端收到 {@link RpcRemoteException}
+         */
+        byte[] handle(ByteBuffer request);
+    }
+
+    public class Server implements AutoCloseable {
+        private final Handler handler;
+        private final JSharedMemReader reader;
+        private final JSharedMemConsumerRuntime runtime;
+        // 每个处理线程独占自己的应答生产者，由处理线程自己淘汰，不会关闭其他线程正在使用的生产者
+        private final ThreadLocal<ReplyProducers> threadLocalReplyProducers = ThreadLocal.withInitial(this::newReplyProducers);
+        private final Queue<ReplyProducers> allReplyProducers = new ConcurrentLinkedQueue<>();
+
+        private Server(Handler handler, int threads) {
+            this.handler = handler;
+            JSharedMemQueue requestQueue = queue(service);
+            requestQueue.initTopic();
+            this.reader = requestQueue.createReader(SERVER_GROUP);
+            this.runtime = new JSharedMemConsumerRuntime(waitStrategy, 1); // 逐条领取，请求在处理线程之间均衡
+            this.runtime.start(reader, threads, this::handle);
+        }
+
+        private void handle(JSharedMemSegment segment) {
+            long correlationId = segment.getTag();
+            byte[] reply;
+            long replyTag = correlationId;
+            try {
+                reply = handler.handle(ByteBuffer.wrap(segment.readContent()));
+            } catch (RuntimeException e) {
+                reply = String.valueOf(e).getBytes(StandardCharsets.UTF_8);
+                replyTag |= ERROR_BIT;
+            }
+            int clientId = (int) (correlationId >>> 32);
+            JSharedMemProducer producer = threadLocalReplyProducers.get().get(clientId);
+            if (producer == null) { // 客户端已经关闭，丢弃应答
+                return;
+            }
+            int maxContentSize = producer.getMaxContentSize();
+            if (reply.length > maxContentSize && (replyTag & ERROR_BIT) == 0) { // 超过容量的应答改为异常应答
+                reply = ("应答大小 " + reply.length + "B 超过最大限制: " + maxContentSize + "B").getBytes(StandardCharsets.UTF_8);
+                replyTag |= ERROR_BIT;
+            }
+            producer.enqueue(replyTag, truncate(reply, maxContentSize));
+        }
+
+        private ReplyProducers newReplyProducers() {
+            ReplyProducers replyProducers = new ReplyProducers();
+            allReplyProducers.add(replyProducers);
+            return replyProducers;
+        }
+
+        @Override
+        public void close() throws Exception {
+            runtime.close(); // 处理线程退出之后才关闭它们的应答生产者
+            reader.close();
+            ReplyProducers replyProducers;
+            while ((replyProducers = allReplyProducers.poll()) != null) {
+                replyProducers.close();
+            }
+        }
+    }
+
+    /**
+     * 处理线程的应答生产者，只向客户端已经创建的应答 topic 写入，服务端不会创建应答 topic
+     * 每隔 {@link #EVICT_INTERVAL_MS} 关闭应答 topic 已被删除 (客户端已关闭) 的生产者
+     */
+    private class ReplyProducers {
+        private final Map<Integer, JSharedMemProducer> producers = new HashMap<>();
+        private long nextEvictMs;
+
+        JSharedMemProducer get(int clientId) {
+            long now = System.currentTimeMillis();
+            if (now >= nextEvictMs) {
+                evict();
+                nextEvictMs = now + EVICT_INTERVAL_MS;
+            }
+            JSharedMemProducer producer = producers.get(clientId);
+            if (producer == null) {
+                JSharedMemQueue replyQueue = queue(replyTopic(clientId));
+                if (!replyQueue.exists()) {
+                    return null;
+                }
+                producer = replyQueue.createProducer();
+                producers.put(clientId, producer);
+            }
+            return producer;
+        }
+
+        private void evict() {
+            Iterator<Map.Entry<Integer, JSharedMemProducer>> iterator = producers.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Integer, JSharedMemProducer> entry = iterator.next();
+                if (!queue(replyTopic(entry.getKey())).exists()) {
+                    closeProducer(entry.getValue());
+                    iterator.remove();
+                }
+            }
+        }
+
+        void close() {
+            for (JSharedMemProducer producer : producers.values()) {
+                closeProducer(producer);
+            }
+            producers.clear();
+        }
+
+        private void closeProducer(JSharedMemProducer producer) {
+            try {
+                producer.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public class Client implements AutoCloseable {
+        private final int clientId;
+        private final String replyTopic;
+        private final JSharedMemProducer requestProducer;
+        private final JSharedMemReader replyReader;
+        private final JSharedMemConsumerRuntime runtime;
+        private final AtomicInteger sequence = new AtomicInteger();
+        private final Map<Long, CompletableFuture<ByteBuffer>> pending = new ConcurrentHashMap<>();
+
+        private Client(int clientId) {
+            this.clientId = clientId;
+            this.replyTopic = replyTopic(clientId);
+            Dictionary.deleteTopic(storagePolicy, replyTopic); // 清理之前使用相同 id 的残留
+            JSharedMemQueue replyQueue = queue(replyTopic);
+            replyQueue.initTopic(); // 应答 topic 只由客户端创建
+            this.requestProducer = queue(service).createProducer();
+            this.replyReader = replyQueue.createReader();
+            this.runtime = new JSharedMemConsumerRuntime(waitStrategy, JSharedMemConsumerRuntime.DEF_BATCH);
+            this.runtime.start(replyReader, this::complete);
+        }
+
+        private void complete(JSharedMemSegment segment) {
+            long tag = segment.getTag();
+            CompletableFuture<ByteBuffer> future = pending.remove(tag & ~ERROR_BIT);
+            if (future == null) return; // 已经超时
+            byte[] content = segment.readContent();
+            if ((tag & ERROR_BIT) != 0) {
+                future.completeExceptionally(new RpcRemoteException(new String(content, StandardCharsets.UTF_8)));
+            } else {
+                future.complete(ByteBuffer.wrap(content));
+            }
+        }
+
+        /**
+         * 发送请求，超时后 future 以 TimeoutException 结束，之后到达的应答被丢弃
+         *
+         * @throws IllegalArgumentException 请求超过请求 topic 的单条数据容量
+         */
+        public CompletableFuture<ByteBuffer> call(byte[] request, long timeout, TimeUnit timeUnit) {
+            CompletableFuture<ByteBuffer> future = send(request);
+            return future.isDone() ? future : future.orTimeout(timeout, timeUnit);
+        }
+
+        /**
+         * 同步调用: 调用线程按 WaitStrategy 自旋等待应答，不经过 CompletableFuture.get 的 park/unpark 与超时定时器
+         * 使用 busySpin 或 yielding 时往返延迟最低，调用线程在等待期间占用 CPU
+         *
+         * @throws TimeoutException         超时，之后到达的应答被丢弃
+         * @throws RpcRemoteException       服务端处理请求时抛出异常
+         * @throws IllegalArgumentException 请求超过请求 topic 的单条数据容量
+         */
+        public ByteBuffer invoke(byte[] request, long timeout, TimeUnit timeUnit) throws TimeoutException {
+            CompletableFuture<ByteBuffer> future = send(request);
+            long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+            int idle = 0;
+            while (!future.isDone()) {
+                if (System.nanoTime() - deadline >= 0) {
+                    future.completeExceptionally(new TimeoutException("RPC 调用超时"));
+                    break;
+                }
+                waitStrategy.idle(idle);
+                if (idle < Integer.MAX_VALUE) idle++;
+            }
+            try {
+                return future.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof TimeoutException timeoutException) throw timeoutException;
+                if (e.getCause() instanceof RuntimeException runtimeException) throw runtimeException;
+                throw e;
+            }
+        }
+
+        private CompletableFuture<ByteBuffer> send(byte[] request) {
+            if (request.length > requestProducer.getMaxContentSize()) { // 领取请求 offset 之前检查，不会让服务端停在空洞上
+                throw new IllegalArgumentException("请求大小 " + request.length + "B 超过最大限制: " + requestProducer.getMaxContentSize() + "B");
+            }
+            long correlationId = ((long) clientId << 32) | (sequence.getAndIncrement() & SEQUENCE_MASK);
+            CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+            pending.put(correlationId, future);
+            future.whenComplete((reply, error) -> pending.remove(correlationId));
+            try {
+                requestProducer.enqueue(correlationId, request);
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        }
+
+        public int getClientId() {
+            return clientId;
+        }
+
+        @Override
+        public void close() throws Exception {
+            runtime.close();
+            replyReader.close();
+            requestProducer.close();
+            IllegalStateException closed = new IllegalStateException("RPC 客户端已关闭");
+            for (CompletableFuture<ByteBuffer> future : pending.values()) {
+                future.completeExceptionally(closed);
+            }
+            pending.clear();
+            Dictionary.deleteTopic(storagePolicy, replyTopic);
+        }
+    }
+}
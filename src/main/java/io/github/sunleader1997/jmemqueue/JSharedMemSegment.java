@@ -1,9 +1,8 @@
 package io.github.sunleader1997.jmemqueue;
 
-import java.nio.ByteBuffer;
-
 /**
  * 一个SMG
+ * 享元对象: 由车厢持有并通过 {@link #wrap(int)} 重新定位，热路径上不再分配新对象
  */
 public class JSharedMemSegment {
     /**
@@ -12,6 +11,10 @@ public class JSharedMemSegment {
      */
     public final int smgSize;
     public final int maxContentSize;
+    /**
+     * 当前 topic 的内容起始偏移量，带 tag 时为 {@link #TAGGED_CONTENT_OFFSET}
+     */
+    public final int contentOffset;
     /**
      * 状态字段偏移量
      */
@@ -24,6 +27,14 @@ public class JSharedMemSegment {
      * 内容字段偏移量
      */
     public static final int CONTENT_OFFSET = 8;
+    /**
+     * tag 字段偏移量 (只在带 tag 的 topic 中存在)
+     */
+    public static final int TAG_OFFSET = 8;
+    /**
+     * 带 tag 时的内容字段偏移量，SMG 总大小不变，内容容量减少 8 字节
+     */
+    public static final int TAGGED_CONTENT_OFFSET = 16;
 
     /**
      * 状态：空闲
@@ -35,28 +46,54 @@ public class JSharedMemSegment {
      */
     public static final int STATE_READABLE = 2;
 
+    /**
+     * 状态：已废弃 (生产者领取 offset 后编码失败)，读者直接跳过
+     */
+    public static final int STATE_DISCARDED = 3;
+
 
-    private final ByteBuffer buffer; // 整个内存分区
-    private final int byteIndex; // 当前SMG的起始偏移量
+    private final CarriageMemory memory; // 整个内存分区
+    private long byteIndex; // 当前SMG的起始偏移量，long 索引支持超过 2GB 的车厢
 
     /**
      *
-     * @param buffer         carriage 的 ByteBuffer
+     * @param memory         carriage 的存储
      * @param maxContentSize 消息容量 单位（B）
      * @param index          索引
      */
-    public JSharedMemSegment(ByteBuffer buffer, int maxContentSize, int index) {
-        this.buffer = buffer;
-        this.maxContentSize = maxContentSize;
-        this.smgSize = maxContentSize + CONTENT_OFFSET;
-        this.byteIndex = index * smgSize;
+    public JSharedMemSegment(CarriageMemory memory, int maxContentSize, int index) {
+        this(memory, maxContentSize, index, false);
+    }
+
+    /**
+     * @param memory     carriage 的存储
+     * @param msgMaxSize topic 的数据元容量 单位（B），SMG 大小为 msgMaxSize + CONTENT_OFFSET
+     * @param index      索引
+     * @param tagged     头部是否带 tag
+     */
+    public JSharedMemSegment(CarriageMemory memory, int msgMaxSize, int index, boolean tagged) {
+        this.memory = memory;
+        this.smgSize = msgMaxSize + CONTENT_OFFSET;
+        this.contentOffset = tagged ? TAGGED_CONTENT_OFFSET : CONTENT_OFFSET;
+        this.maxContentSize = smgSize - contentOffset;
+        this.byteIndex = (long) index * smgSize;
+    }
+
+    /**
+     * 重新定位到车厢内的另一个索引，复用当前对象
+     *
+     * @param index 索引
+     */
+    public JSharedMemSegment wrap(int index) {
+        this.byteIndex = (long) index * smgSize;
+        return this;
     }
 
     /**
      * 获取指定位置的状态
      */
-    public static int getCurrentState(ByteBuffer buffer, int offset) {
-        return AtomicVarHandle.getInt(buffer, offset + STATE_OFFSET);
+    public static int getCurrentState(CarriageMemory memory, long offset) {
+        return memory.getIntVolatile(offset + STATE_OFFSET);
     }
 
     /**
@@ -64,7 +101,7 @@ public class JSharedMemSegment {
      * 可作用于不同进程下对同一个数值的cas操作
      */
     public boolean compareAndSetState(int expectedState, int newState) {
-        return AtomicVarHandle.compareAndSetInt(buffer, byteIndex + STATE_OFFSET, expectedState, newState);
+        return memory.compareAndSetInt(byteIndex + STATE_OFFSET, expectedState, newState);
     }
 
     public boolean isState(int state) {
@@ -75,28 +112,67 @@ public class JSharedMemSegment {
      * 读取状态
      */
     public int getState() {
-        return AtomicVarHandle.getInt(buffer, byteIndex + STATE_OFFSET);
+        return memory.getIntVolatile(byteIndex + STATE_OFFSET);
     }
 
     /**
      * 设置状态
      */
     public void setState(int newState) {
-        AtomicVarHandle.setInt(buffer, byteIndex + STATE_OFFSET, newState);
+        memory.setIntVolatile(byteIndex + STATE_OFFSET, newState);
+    }
+
+    /**
+     * 读取状态 (acquire)，读到 STATE_READABLE 后 size 与内容一定可见
+     */
+    public int getStateAcquire() {
+        return memory.getIntAcquire(byteIndex + STATE_OFFSET);
+    }
+
+    /**
+     * 发布状态 (release)，之前写入的 size 与内容先于状态可见
+     */
+    public void setStateRelease(int newState) {
+        memory.setIntRelease(byteIndex + STATE_OFFSET, newState);
     }
 
     /**
      * 读取数据大小
      */
     public int getSize() {
-        return buffer.getInt(byteIndex + SIZE_OFFSET);
+        return memory.getInt(byteIndex + SIZE_OFFSET);
     }
 
     /**
      * 设置数据大小
      */
     public void setSize(int size) {
-        buffer.putInt(byteIndex + SIZE_OFFSET, size);
+        memory.putInt(byteIndex + SIZE_OFFSET, size);
+    }
+
+    public boolean isTagged() {
+        return contentOffset == TAGGED_CONTENT_OFFSET;
+    }
+
+    /**
+     * 读取 tag，只能在 isReadable 之后读取
+     */
+    public long getTag() {
+        return memory.getLong(byteIndex + TAG_OFFSET);
+    }
+
+    /**
+     * 设置 tag，只能在发布状态之前写入
+     */
+    public void setTag(long tag) {
+        memory.putLong(byteIndex + TAG_OFFSET, tag);
+    }
+
+    /**
+     * 只复制内容，不修改 size 与状态
+     */
+    public void putContent(byte[] src, int offset, int length) {
+        memory.put(byteIndex + contentOffset, src, offset, length);
     }
 
     /**
@@ -107,8 +183,19 @@ public class JSharedMemSegment {
             throw new IllegalArgumentException("数据大小超过最大限制: " + maxContentSize);
         }
         this.setSize(data.length);
-        buffer.put(byteIndex + CONTENT_OFFSET, data);
-        setState(STATE_READABLE);// 标记当前为可读状态
+        memory.put(byteIndex + contentOffset, data, 0, data.length);
+        setStateRelease(STATE_READABLE);// 标记当前为可读状态
+    }
+
+    /**
+     * 写入 tag 与数据内容
+     */
+    public void writeContent(long tag, byte[] data) {
+        if (!isTagged()) {
+            throw new IllegalStateException("当前 topic 没有开启 tag");
+        }
+        this.setTag(tag);
+        this.writeContent(data);
     }
 
     /**
@@ -116,18 +203,108 @@ public class JSharedMemSegment {
      */
     public byte[] readContent() {
         byte[] data = new byte[getSize()];
-        buffer.get(byteIndex + CONTENT_OFFSET, data);
+        memory.get(byteIndex + contentOffset, data, 0, data.length);
         return data;
     }
 
     public boolean isReadable() {
-        return isState(JSharedMemSegment.STATE_READABLE);
+        return getStateAcquire() == JSharedMemSegment.STATE_READABLE;
+    }
+
+    public boolean isDiscarded() {
+        return getStateAcquire() == JSharedMemSegment.STATE_DISCARDED;
+    }
+
+    /**
+     * 生产者已经结束对该 SMG 的写入 (可读或已废弃)
+     */
+    public boolean isPublished() {
+        int state = getStateAcquire();
+        return state == STATE_READABLE || state == STATE_DISCARDED;
+    }
+
+    /**
+     * 发布直接写入内容区的数据 (见 putInt/putLong 等)
+     *
+     * @param length 内容长度
+     */
+    public void publish(int length) {
+        if (length < 0 || length > maxContentSize) {
+            throw new IllegalArgumentException("数据大小超过最大限制: " + maxContentSize);
+        }
+        this.setSize(length);
+        setStateRelease(STATE_READABLE);
+    }
+
+    public void publish(long tag, int length) {
+        if (!isTagged()) {
+            throw new IllegalStateException("当前 topic 没有开启 tag");
+        }
+        this.setTag(tag);
+        this.publish(length);
+    }
+
+    /**
+     * 放弃已领取的 SMG，读者会跳过它
+     */
+    public void discard() {
+        this.setSize(0);
+        setStateRelease(STATE_DISCARDED);
+    }
+
+    // ---------- 内容区访问，position 为相对内容起始位置的偏移量，使用大端序 ----------
+
+    private long contentIndex(int position, int width) {
+        if (position < 0 || position > maxContentSize - width) {
+            throw new IndexOutOfBoundsException("SMG 内容越界: " + position + "+" + width + " > " + maxContentSize);
+        }
+        return byteIndex + contentOffset + position;
+    }
+
+    public byte getByte(int position) {
+        return memory.getByte(contentIndex(position, 1));
+    }
+
+    public void putByte(int position, byte value) {
+        memory.putByte(contentIndex(position, 1), value);
+    }
+
+    public int getInt(int position) {
+        return memory.getInt(contentIndex(position, Integer.BYTES));
+    }
+
+    public void putInt(int position, int value) {
+        memory.putInt(contentIndex(position, Integer.BYTES), value);
+    }
+
+    public long getLong(int position) {
+        return memory.getLong(contentIndex(position, Long.BYTES));
+    }
+
+    public void putLong(int position, long value) {
+        memory.putLong(contentIndex(position, Long.BYTES), value);
+    }
+
+    public double getDouble(int position) {
+        return Double.longBitsToDouble(getLong(position));
+    }
+
+    public void putDouble(int position, double value) {
+        putLong(position, Double.doubleToRawLongBits(value));
+    }
+
+    public void getBytes(int position, byte[] dst, int offset, int length) {
+        memory.get(contentIndex(position, length), dst, offset, length);
+    }
+
+    public void putBytes(int position, byte[] src, int offset, int length) {
+        memory.put(contentIndex(position, length), src, offset, length);
     }
 
     /**
      * 获取当前SMG的起始偏移量
      */
-    public int getByteIndex() {
+    public long getByteIndex() {
         return byteIndex;
     }
 }
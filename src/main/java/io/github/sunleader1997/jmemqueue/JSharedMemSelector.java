@@ -0,0 +1,145 @@
+package io.github.sunleader1997.jmemqueue;
+
+import io.github.sunleader1997.jmemqueue.wait.BackoffWaitStrategy;
+import io.github.sunleader1997.jmemqueue.wait.WaitStrategy;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多 topic 选择器: 一个线程等待多个 reader，返回有数据的 reader
+ * 生产者发布数据后在共享的就绪位图 (${parentDir}/.readiness) 中置位并推进纪元，纪元推进后选择器检查注册的全部 reader
+ * 所有 topic 都空闲时只读取位图的纪元，配合 park 等待几乎不占用 CPU，不需要逐个读取 .base
+ * 位图被所有进程的选择器共享，清零只是为了让下一次发布重新推进纪元，不依赖清零的结果判断 topic 是否有数据，
+ * 所以多个 group 的选择器监听同一个 topic 或不同 topic 哈希冲突时都不会丢失唤醒
+ * 水平触发: 上一次返回的 reader 如果还没有读完，下一次仍然返回
+ * 选择器不是线程安全的，注册与选择应该在同一个线程 (读取数据的线程) 上进行
+ */
+public class JSharedMemSelector {
+    public static final long DEF_MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final WaitStrategy waitStrategy;
+    private final List<Entry> entries = new ArrayList<>(); // 按 (位图, 位) 排序，哈希到同一位的 reader 相邻
+    private final List<JSharedMemReadiness> readinessList = new ArrayList<>();
+    private final List<JSharedMemReader> selected = new ArrayList<>();
+    private long[] epochs = new long[0];
+
+    public JSharedMemSelector() {
+        this(new BackoffWaitStrategy(BackoffWaitStrategy.DEF_SPIN_TRIES, BackoffWaitStrategy.DEF_YIELD_TRIES,
+                BackoffWaitStrategy.DEF_MIN_PARK_NANOS, DEF_MAX_PARK_NANOS));
+    }
+
+    /**
+     * @param waitStrategy 没有就绪的 topic 时等待，park 时间决定空闲 CPU 与唤醒延迟
+     */
+    public JSharedMemSelector(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * 注册 reader，注册后的第一次选择会检查它是否已经有数据
+     */
+    public JSharedMemSelector register(JSharedMemReader reader) {
+        JSharedMemReadiness readiness = JSharedMemReadiness.of(reader.getStoragePolicy().getParentDir());
+        if (!readinessList.contains(readiness)) {
+            readinessList.add(readiness);
+            epochs = new long[readinessList.size()];
+        }
+        entries.add(new Entry(reader, readiness, readinessList.indexOf(readiness), JSharedMemReadiness.bitOf(reader.getTopic())));
+        entries.sort(Comparator.comparingInt((Entry e) -> e.readinessIndex).thenComparingInt(e -> e.bit));
+        return this;
+    }
+
+    public JSharedMemSelector unregister(JSharedMemReader reader) {
+        entries.removeIf(entry -> entry.reader == reader);
+        return this;
+    }
+
+    /**
+     * 立即返回当前有数据的 reader，没有时返回空列表
+     * 返回的列表在下一次选择之前有效
+     */
+    public List<JSharedMemReader> selectNow() {
+        selected.clear();
+        JSharedMemReadiness lastReadiness = null;
+        int lastBit = -1;
+        for (Entry entry : entries) {
+            if (entry.readiness != lastReadiness || entry.bit != lastBit) { // 同一位只清零一次
+                entry.readiness.clear(entry.bit);
+                lastReadiness = entry.readiness;
+                lastBit = entry.bit;
+            }
+        }
+        // 清零之后再检查: 检查时没有看到的数据，发布时一定会重新置位并推进纪元
+        VarHandle.fullFence();
+        for (Entry entry : entries) {
+            if (entry.reader.hasAvailable()) {
+                selected.add(entry.reader);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * 等待直到有 reader 有数据
+     */
+    public List<JSharedMemReader> select() {
+        return select(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 等待直到有 reader 有数据或超时，超时返回空列表
+     * 检查之前记录纪元，检查之后置位的 topic 一定会推进纪元，所以不会错过唤醒
+     */
+    public List<JSharedMemReader> select(long timeout, TimeUnit timeUnit) {
+        long timeoutNanos = timeUnit.toNanos(timeout);
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (true) {
+            readEpochs();
+            List<JSharedMemReader> readers = selectNow();
+            if (!readers.isEmpty()) return readers;
+            int idle = 0;
+            while (!epochChanged()) {
+                if (timeoutNanos != Long.MAX_VALUE && System.nanoTime() - deadline >= 0) {
+                    return readers;
+                }
+                waitStrategy.idle(idle);
+                if (idle < Integer.MAX_VALUE) idle++;
+            }
+        }
+    }
+
+    private void readEpochs() {
+        for (int i = 0; i < epochs.length; i++) {
+            epochs[i] = readinessList.get(i).epoch();
+        }
+    }
+
+    private boolean epochChanged() {
+        for (int i = 0; i < epochs.length; i++) {
+            if (readinessList.get(i).epoch() != epochs[i]) return true;
+        }
+        return false;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private static final class Entry {
+        private final JSharedMemReader reader;
+        private final JSharedMemReadiness readiness;
+        private final int readinessIndex;
+        private final int bit;
+
+        private Entry(JSharedMemReader reader, JSharedMemReadiness readiness, int readinessIndex, int bit) {
+            this.reader = reader;
+            this.readiness = readiness;
+            this.readinessIndex = readinessIndex;
+            this.bit = bit;
+        }
+    }
+}
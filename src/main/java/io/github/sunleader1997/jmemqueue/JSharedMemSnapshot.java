@@ -0,0 +1,98 @@
+package io.github.sunleader1997.jmemqueue;
+
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * 压实 topic 的快照: 每个 key 的最新值 + 继续消费的位置
+ * 快照之后写入的数据 (offset >= resumeOffset) 不在快照中，由消费者从 resumeOffset 开始消费得到
+ * resumeOffset 是索引的已确认位置: 之前的 SMG 都已经写完，生产者先更新索引再发布，所以之前每个 key 的最新值一定在索引中；
+ * 还在写入的记录 (以及之后的所有记录) 都留给消费者，不会因为索引还没更新而丢失
+ */
+public class JSharedMemSnapshot implements AutoCloseable {
+    private final JSharedMemBaseInfo jSharedMemBaseInfo;
+    private final JSharedMemKeyIndex keyIndex;
+    private final long resumeOffset;
+
+    JSharedMemSnapshot(JSharedMemBaseInfo jSharedMemBaseInfo, JSharedMemKeyIndex keyIndex) {
+        this.jSharedMemBaseInfo = jSharedMemBaseInfo;
+        this.keyIndex = keyIndex;
+        // 先确认位置再读索引，索引中 >= resumeOffset 的记录留给消费者
+        this.resumeOffset = keyIndex.settle(jSharedMemBaseInfo);
+    }
+
+    /**
+     * 按 offset 升序遍历每个 key 的最新值，同一个车厢只挂载一次
+     * 已经被 TTL 清理的记录会被跳过
+     */
+    public void forEach(Visitor visitor) {
+        OffsetCollector collector = new OffsetCollector((int) Math.min(1 << 20, keyIndex.size()));
+        keyIndex.forEach(collector);
+        long[] offsets = collector.offsets;
+        int count = collector.count;
+        Arrays.sort(offsets, 0, count);
+        JSharedMemCarriage carriage = null;
+        try {
+            for (int i = 0; i < count; i++) {
+                long offset = offsets[i];
+                if (carriage == null || carriage.compareTo(offset) != 0) {
+                    if (carriage != null) carriage.close();
+                    carriage = new JSharedMemCarriage(jSharedMemBaseInfo, offset, null).mmap(FileChannel.MapMode.READ_ONLY);
+                }
+                if (!carriage.exist()) continue;
+                JSharedMemSegment segment = carriage.getSegment(offset);
+                if (!segment.isReadable()) continue;
+                visitor.accept(segment.getTag(), segment.readContent());
+            }
+        } finally {
+            if (carriage != null) carriage.close();
+        }
+    }
+
+    /**
+     * 快照之后第一个 offset，消费者通过 {@link JSharedMemReader#seek(long)} 从这里开始消费
+     */
+    public long getResumeOffset() {
+        return resumeOffset;
+    }
+
+    /**
+     * 将 reader 所在 group 的 offset 定位到快照之后
+     */
+    public JSharedMemReader seek(JSharedMemReader reader) {
+        reader.seek(resumeOffset);
+        return reader;
+    }
+
+    @Override
+    public void close() {
+        keyIndex.close();
+        jSharedMemBaseInfo.close();
+    }
+
+    /**
+     * 收集快照之前的 offset
+     */
+    private final class OffsetCollector implements JSharedMemKeyIndex.Entry {
+        private long[] offsets;
+        private int count;
+
+        private OffsetCollector(int initialCapacity) {
+            this.offsets = new long[Math.max(16, initialCapacity)];
+        }
+
+        @Override
+        public void accept(long key, long offset) {
+            if (offset >= resumeOffset) return;
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[count++] = offset;
+        }
+    }
+
+    @FunctionalInterface
+    public interface Visitor {
+        void accept(long key, byte[] value);
+    }
+}
@@ -0,0 +1,65 @@
+package io.github.sunleader1997.jmemqueue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单生产者单消费者的无锁环形队列
+ * 生产者 release 发布 tail，消费者 acquire 读取；双方各自缓存对方的位置，只在看起来满/空时才重新读取
+ */
+final class SpscRing<E> {
+    private final Object[] buffer;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(); // 消费者写
+    private final AtomicLong tail = new AtomicLong(); // 生产者写
+    private long cachedHead; // 生产者线程独占
+    private long cachedTail; // 消费者线程独占
+
+    SpscRing(int capacity) {
+        int size = JSharedMemQueue.ceilPowerOfTwo(capacity);
+        this.buffer = new Object[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * 只能由生产者线程调用
+     *
+     * @return false 表示已满
+     */
+    boolean offer(E element) {
+        long t = tail.getPlain();
+        if (t - cachedHead >= buffer.length) {
+            cachedHead = head.getAcquire();
+            if (t - cachedHead >= buffer.length) {
+                return false;
+            }
+        }
+        buffer[(int) (t & mask)] = element;
+        tail.setRelease(t + 1);
+        return true;
+    }
+
+    /**
+     * 只能由消费者线程调用
+     *
+     * @return null 表示为空
+     */
+    @SuppressWarnings("unchecked")
+    E poll() {
+        long h = head.getPlain();
+        if (h >= cachedTail) {
+            cachedTail = tail.getAcquire();
+            if (h >= cachedTail) {
+                return null;
+            }
+        }
+        int index = (int) (h & mask);
+        E element = (E) buffer[index];
+        buffer[index] = null;
+        head.setRelease(h + 1);
+        return element;
+    }
+
+    boolean isEmpty() {
+        return head.getAcquire() >= tail.getAcquire();
+    }
+}
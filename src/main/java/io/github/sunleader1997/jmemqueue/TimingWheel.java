@@ -0,0 +1,139 @@
+package io.github.sunleader1997.jmemqueue;
+
+import java.util.Arrays;
+
+/**
+ * 分层时间轮，4 层 x 256 槽，1 个刻度为 tickMs
+ * 第 L 层的一个槽覆盖 256^L 个刻度，插入时按剩余刻度选择层，刻度推进到上一层的槽边界时把该槽的条目降级到下层
+ * 插入与到期都是 O(1)，超过 256^4 个刻度的条目放在溢出列表中，每次最高层降级时重新放置
+ * 条目只有 (到期时间, 值) 两个 long，不分配节点对象；只由一个线程访问
+ */
+final class TimingWheel {
+    private static final int LEVELS = 4;
+    private static final int WHEEL_BITS = 8;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    private final long tickMs;
+    private final Bucket[][] wheels = new Bucket[LEVELS][WHEEL_SIZE];
+    private final Bucket overflow = new Bucket();
+    private final Bucket cascading = new Bucket();
+    private long currentTick; // 下一个要处理的刻度
+    private int size;
+
+    TimingWheel(long tickMs, long startMs) {
+        this.tickMs = tickMs;
+        this.currentTick = startMs / tickMs;
+        for (Bucket[] wheel : wheels) {
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                wheel[i] = new Bucket();
+            }
+        }
+    }
+
+    /**
+     * @param dueMs 到期时间，已经到期的条目在下一次推进时到期
+     */
+    void add(long dueMs, long value) {
+        place(dueMs, value);
+        size++;
+    }
+
+    private void place(long dueMs, long value) {
+        long dueTick = Math.max(dueMs / tickMs, currentTick);
+        long delta = dueTick - currentTick;
+        for (int level = 0; level < LEVELS; level++) {
+            if (delta < 1L << (WHEEL_BITS * (level + 1))) {
+                wheels[level][(int) (dueTick >>> (WHEEL_BITS * level)) & WHEEL_MASK].add(dueMs, value);
+                return;
+            }
+        }
+        overflow.add(dueMs, value);
+    }
+
+    /**
+     * 推进到 nowMs，按刻度顺序交出所有到期的条目
+     */
+    void advance(long nowMs, Expired expired) {
+        long nowTick = nowMs / tickMs;
+        if (size == 0) { // 空轮直接跳到当前刻度
+            currentTick = Math.max(currentTick, nowTick + 1);
+            return;
+        }
+        while (currentTick <= nowTick) {
+            if ((currentTick & WHEEL_MASK) == 0) {
+                cascade();
+            }
+            Bucket bucket = wheels[0][(int) currentTick & WHEEL_MASK];
+            for (int i = 0; i < bucket.size; i++) {
+                size--;
+                expired.accept(bucket.dues[i], bucket.values[i]);
+            }
+            bucket.size = 0;
+            currentTick++;
+        }
+    }
+
+    /**
+     * 从最高的边界层开始逐层降级，上层降级的条目可能落入随后降级的下层槽
+     */
+    private void cascade() {
+        int top = 1;
+        while (top < LEVELS && (currentTick & ((1L << (WHEEL_BITS * (top + 1))) - 1)) == 0) {
+            top++;
+        }
+        if (top >= LEVELS - 1) { // 最高层降级时检查溢出列表
+            redistribute(overflow);
+        }
+        for (int level = Math.min(top, LEVELS - 1); level >= 1; level--) {
+            redistribute(wheels[level][(int) (currentTick >>> (WHEEL_BITS * level)) & WHEEL_MASK]);
+        }
+    }
+
+    private void redistribute(Bucket bucket) {
+        if (bucket.size == 0) return;
+        cascading.swap(bucket);
+        for (int i = 0; i < cascading.size; i++) {
+            place(cascading.dues[i], cascading.values[i]);
+        }
+        cascading.size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    @FunctionalInterface
+    interface Expired {
+        void accept(long dueMs, long value);
+    }
+
+    private static final class Bucket {
+        private long[] dues = new long[4];
+        private long[] values = new long[4];
+        private int size;
+
+        private void add(long due, long value) {
+            if (size == dues.length) {
+                dues = Arrays.copyOf(dues, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            dues[size] = due;
+            values[size] = value;
+            size++;
+        }
+
+        /**
+         * 交换数组，被降级的槽在放置过程中可以重新接收条目
+         */
+        private void swap(Bucket other) {
+            long[] d = dues, v = values;
+            dues = other.dues;
+            values = other.values;
+            size = other.size;
+            other.dues = d;
+            other.values = v;
+            other.size = 0;
+        }
+    }
+}
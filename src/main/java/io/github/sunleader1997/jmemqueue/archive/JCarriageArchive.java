@@ -0,0 +1,356 @@
+package io.github.sunleader1997.jmemqueue.archive;
+
+import io.github.sunleader1997.jmemqueue.JSharedMemSegment;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 归档车厢: 已封存车厢的紧凑压缩格式
+ * 只保存写入过的 SMG，去掉定长 SMG 中的空白，按块压缩 (java.util.zip, BEST_SPEED)
+ * <pre>
+ * [HEADER]  magic(4) version(4) carriageIndex(8) capacity(8) msgMaxSize(4) flags(4)
+ * [BLOCK]*  deflate( [offset(8) tag(8) size(4) content(size)]* )
+ * [INDEX]   [firstOffset(8) lastOffset(8) position(8) compressedSize(4) rawSize(4)]*
+ * [TRAILER] indexPosition(8) blockCount(4) magic(4)
+ * </pre>
+ * 记录可以是稀疏的 (跳过的 offset 视为不存在)，压实后的车厢也使用这个格式
+ */
+public class JCarriageArchive implements AutoCloseable {
+    public static final int MAGIC = 0x4A534D41; // JSMA
+    public static final int VERSION = 1;
+    public static final int BLOCK_SIZE = 64 * 1024; // 压缩前的块大小
+    public static final int DEF_CACHED_BLOCKS = 4;
+
+    private static final int HEADER_SIZE = 32;
+    private static final int INDEX_ENTRY_SIZE = 32;
+    private static final int TRAILER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 20;
+
+    private final FileChannel channel;
+    private final long carriageIndex;
+    private final long capacity;
+    private final int msgMaxSize;
+    private final int flags;
+    private final long[] blockFirstOffsets;
+    private final long[] blockLastOffsets;
+    private final long[] blockPositions;
+    private final int[] blockCompressedSizes;
+    private final int[] blockRawSizes;
+    // 解压后的块，按访问顺序淘汰
+    private final Map<Integer, Block> blockCache;
+    private final Inflater inflater = new Inflater();
+
+    private JCarriageArchive(FileChannel channel, int cachedBlocks) throws IOException {
+        this.channel = channel;
+        ByteBuffer header = read(0, HEADER_SIZE);
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException("不是有效的归档车厢");
+        }
+        this.carriageIndex = header.getLong();
+        this.capacity = header.getLong();
+        this.msgMaxSize = header.getInt();
+        this.flags = header.getInt();
+        ByteBuffer trailer = read(channel.size() - TRAILER_SIZE, TRAILER_SIZE);
+        long indexPosition = trailer.getLong();
+        int blockCount = trailer.getInt();
+        if (trailer.getInt() != MAGIC) {
+            throw new IOException("归档车厢不完整");
+        }
+        ByteBuffer index = read(indexPosition, blockCount * INDEX_ENTRY_SIZE);
+        this.blockFirstOffsets = new long[blockCount];
+        this.blockLastOffsets = new long[blockCount];
+        this.blockPositions = new long[blockCount];
+        this.blockCompressedSizes = new int[blockCount];
+        this.blockRawSizes = new int[blockCount];
+        for (int i = 0; i < blockCount; i++) {
+            blockFirstOffsets[i] = index.getLong();
+            blockLastOffsets[i] = index.getLong();
+            blockPositions[i] = index.getLong();
+            blockCompressedSizes[i] = index.getInt();
+            blockRawSizes[i] = index.getInt();
+        }
+        this.blockCache = new LinkedHashMap<>(cachedBlocks * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Block> eldest) {
+                return size() > cachedBlocks;
+            }
+        };
+    }
+
+    public static JCarriageArchive open(Path path) throws IOException {
+        return open(path, DEF_CACHED_BLOCKS);
+    }
+
+    public static JCarriageArchive open(Path path, int cachedBlocks) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new JCarriageArchive(channel, cachedBlocks);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 将 offset 对应的记录加载到 segment (索引 0) 中
+     *
+     * @return false 表示该 offset 没有记录，segment 状态被置为 STATE_IDLE
+     */
+    public boolean load(long offset, JSharedMemSegment segment) throws IOException {
+        segment.wrap(0);
+        int blockIndex = findBlock(offset);
+        if (blockIndex >= 0) {
+            Block block = getBlock(blockIndex);
+            int record = Arrays.binarySearch(block.offsets, offset);
+            if (record >= 0) {
+                ByteBuffer raw = ByteBuffer.wrap(block.raw);
+                int position = block.positions[record];
+                long tag = raw.getLong(position + 8);
+                int size = raw.getInt(position + 16);
+                segment.setSize(size);
+                if (segment.isTagged()) {
+                    segment.setTag(tag);
+                }
+                segment.putContent(block.raw, position + RECORD_HEADER_SIZE, size);
+                segment.setState(JSharedMemSegment.STATE_READABLE);
+                return true;
+            }
+        }
+        segment.setState(JSharedMemSegment.STATE_IDLE);
+        return false;
+    }
+
+    /**
+     * 按 offset 升序遍历所有记录，content 所在的数组只在回调期间有效
+     */
+    public void forEach(RecordVisitor visitor) throws IOException {
+        for (int blockIndex = 0; blockIndex < blockFirstOffsets.length; blockIndex++) {
+            Block block = getBlock(blockIndex);
+            ByteBuffer raw = ByteBuffer.wrap(block.raw);
+            for (int record = 0; record < block.offsets.length; record++) {
+                int position = block.positions[record];
+                visitor.accept(block.offsets[record], raw.getLong(position + 8), block.raw, position + RECORD_HEADER_SIZE, raw.getInt(position + 16));
+            }
+        }
+    }
+
+    private int findBlock(long offset) {
+        int index = Arrays.binarySearch(blockFirstOffsets, offset);
+        if (index < 0) {
+            index = -index - 2; // 最后一个 firstOffset < offset 的块
+        }
+        if (index < 0 || offset > blockLastOffsets[index]) {
+            return -1;
+        }
+        return index;
+    }
+
+    private Block getBlock(int blockIndex) throws IOException {
+        Block block = blockCache.get(blockIndex);
+        if (block != null) {
+            return block;
+        }
+        ByteBuffer compressed = read(blockPositions[blockIndex], blockCompressedSizes[blockIndex]);
+        byte[] raw = new byte[blockRawSizes[blockIndex]];
+        inflater.reset();
+        inflater.setInput(compressed.array(), 0, compressed.limit());
+        try {
+            int length = 0;
+            while (length < raw.length && !inflater.finished()) {
+                length += inflater.inflate(raw, length, raw.length - length);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("归档块损坏: " + blockIndex, e);
+        }
+        block = Block.parse(raw);
+        blockCache.put(blockIndex, block);
+        return block;
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("归档车厢不完整");
+            }
+        }
+        return buffer.flip();
+    }
+
+    public long getCarriageIndex() {
+        return carriageIndex;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public int getMsgMaxSize() {
+        return msgMaxSize;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public int getBlockCount() {
+        return blockFirstOffsets.length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        channel.close();
+    }
+
+    @FunctionalInterface
+    public interface RecordVisitor {
+        void accept(long offset, long tag, byte[] content, int contentOffset, int length) throws IOException;
+    }
+
+    /**
+     * 解压后的块，records 按 offset 升序
+     */
+    private static final class Block {
+        private final byte[] raw;
+        private final long[] offsets;
+        private final int[] positions;
+
+        private Block(byte[] raw, long[] offsets, int[] positions) {
+            this.raw = raw;
+            this.offsets = offsets;
+            this.positions = positions;
+        }
+
+        private static Block parse(byte[] raw) {
+            ByteBuffer buffer = ByteBuffer.wrap(raw);
+            int count = 0;
+            for (int position = 0; position < raw.length; count++) {
+                position += RECORD_HEADER_SIZE + buffer.getInt(position + 16);
+            }
+            long[] offsets = new long[count];
+            int[] positions = new int[count];
+            for (int i = 0, position = 0; i < count; i++) {
+                offsets[i] = buffer.getLong(position);
+                positions[i] = position;
+                position += RECORD_HEADER_SIZE + buffer.getInt(position + 16);
+            }
+            return new Block(raw, offsets, positions);
+        }
+    }
+
+    /**
+     * 归档写入器，记录必须按 offset 升序追加
+     */
+    public static class Writer implements AutoCloseable {
+        private final FileChannel channel;
+        private final DataOutputStream out;
+        private final ByteArrayOutputStream rawBlock = new ByteArrayOutputStream(BLOCK_SIZE + 4096);
+        private final DataOutputStream rawOut = new DataOutputStream(rawBlock);
+        private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+        private final DataOutputStream indexOut = new DataOutputStream(index);
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private final byte[] deflateBuffer = new byte[BLOCK_SIZE];
+        private long position;
+        private int blockCount;
+        private long blockFirstOffset = -1;
+        private long lastOffset = -1;
+        private int recordCount;
+
+        public Writer(Path path, long carriageIndex, long capacity, int msgMaxSize, int flags) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BLOCK_SIZE));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(carriageIndex);
+            out.writeLong(capacity);
+            out.writeInt(msgMaxSize);
+            out.writeInt(flags);
+            this.position = HEADER_SIZE;
+        }
+
+        /**
+         * 追加一个 SMG (必须是可读状态)
+         */
+        public void append(long offset, JSharedMemSegment segment) throws IOException {
+            byte[] content = segment.readContent();
+            append(offset, segment.isTagged() ? segment.getTag() : 0, content, 0, content.length);
+        }
+
+        public void append(long offset, long tag, byte[] content, int contentOffset, int length) throws IOException {
+            if (offset <= lastOffset) {
+                throw new IllegalArgumentException("记录必须按 offset 升序追加: " + offset);
+            }
+            if (blockFirstOffset < 0) {
+                blockFirstOffset = offset;
+            }
+            rawOut.writeLong(offset);
+            rawOut.writeLong(tag);
+            rawOut.writeInt(length);
+            rawOut.write(content, contentOffset, length);
+            lastOffset = offset;
+            recordCount++;
+            if (rawBlock.size() >= BLOCK_SIZE) {
+                flushBlock();
+            }
+        }
+
+        private void flushBlock() throws IOException {
+            if (rawBlock.size() == 0) return;
+            byte[] raw = rawBlock.toByteArray();
+            deflater.reset();
+            deflater.setInput(raw);
+            deflater.finish();
+            int compressedSize = 0;
+            while (!deflater.finished()) {
+                int length = deflater.deflate(deflateBuffer);
+                out.write(deflateBuffer, 0, length);
+                compressedSize += length;
+            }
+            indexOut.writeLong(blockFirstOffset);
+            indexOut.writeLong(lastOffset);
+            indexOut.writeLong(position);
+            indexOut.writeInt(compressedSize);
+            indexOut.writeInt(raw.length);
+            position += compressedSize;
+            blockCount++;
+            blockFirstOffset = -1;
+            rawBlock.reset();
+        }
+
+        public int getRecordCount() {
+            return recordCount;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flushBlock();
+                long indexPosition = position;
+                index.writeTo(out);
+                out.writeLong(indexPosition);
+                out.writeInt(blockCount);
+                out.writeInt(MAGIC);
+                out.flush();
+                channel.force(true); // 归档替换车厢之前必须落盘，否则掉电后可能只剩不完整的归档
+            } finally {
+                deflater.end();
+                out.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package io.github.sunleader1997.jmemqueue.codec;
+
+import io.github.sunleader1997.jmemqueue.JSharedMemSegment;
+
+/**
+ * 类型编解码，直接读写映射中的 SMG 内容区，不经过中间 byte[] / ByteBuffer
+ * 通过 {@link JSharedMemSegment#putLong(int, long)} 等方法按相对内容起始位置读写
+ */
+public interface Codec<T> {
+
+    /**
+     * 从内容区位置 0 开始写入，不需要设置 size 与状态
+     *
+     * @return 写入的长度
+     */
+    int encode(T value, JSharedMemSegment segment);
+
+    /**
+     * 解码，SMG 为享元，只能在回调/本次读取期间访问
+     */
+    T decode(JSharedMemSegment segment);
+}
@@ -0,0 +1,62 @@
+package io.github.sunleader1997.jmemqueue.codec;
+
+import io.github.sunleader1997.jmemqueue.JSharedMemSegment;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 内置编解码
+ */
+public final class Codecs {
+    private Codecs() {
+    }
+
+    public static final Codec<Long> LONG = new Codec<>() {
+        @Override
+        public int encode(Long value, JSharedMemSegment segment) {
+            segment.putLong(0, value);
+            return Long.BYTES;
+        }
+
+        @Override
+        public Long decode(JSharedMemSegment segment) {
+            return segment.getLong(0);
+        }
+    };
+
+    /**
+     * int 数组，长度由 size / 4 得到
+     */
+    public static final Codec<int[]> INTS = new Codec<>() {
+        @Override
+        public int encode(int[] value, JSharedMemSegment segment) {
+            for (int i = 0; i < value.length; i++) {
+                segment.putInt(i * Integer.BYTES, value[i]);
+            }
+            return value.length * Integer.BYTES;
+        }
+
+        @Override
+        public int[] decode(JSharedMemSegment segment) {
+            int[] value = new int[segment.getSize() / Integer.BYTES];
+            for (int i = 0; i < value.length; i++) {
+                value[i] = segment.getInt(i * Integer.BYTES);
+            }
+            return value;
+        }
+    };
+
+    public static final Codec<String> UTF8 = new Codec<>() {
+        @Override
+        public int encode(String value, JSharedMemSegment segment) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            segment.putBytes(0, bytes, 0, bytes.length);
+            return bytes.length;
+        }
+
+        @Override
+        public String decode(JSharedMemSegment segment) {
+            return new String(segment.readContent(), StandardCharsets.UTF_8);
+        }
+    };
+}
@@ -0,0 +1,33 @@
+package io.github.sunleader1997.jmemqueue.codec;
+
+import io.github.sunleader1997.jmemqueue.JSharedMemSegment;
+
+/**
+ * 享元解码器: 子类按固定位置读取字段，直接访问映射内存，读取时不分配对象
+ * <pre>
+ * class Quote extends Flyweight {
+ *     long symbol() { return segment.getLong(0); }
+ *     double price() { return segment.getDouble(8); }
+ * }
+ * </pre>
+ * 同一个实例可以反复 wrap，只在下一次读取之前有效，不能跨线程共享
+ */
+public abstract class Flyweight {
+    protected JSharedMemSegment segment;
+
+    public Flyweight wrap(JSharedMemSegment segment) {
+        this.segment = segment;
+        return this;
+    }
+
+    /**
+     * 内容长度
+     */
+    public int length() {
+        return segment.getSize();
+    }
+
+    public long tag() {
+        return segment.getTag();
+    }
+}
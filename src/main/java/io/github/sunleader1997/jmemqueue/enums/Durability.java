@@ -0,0 +1,17 @@
+package io.github.sunleader1997.jmemqueue.enums;
+
+public enum Durability {
+    /**
+     * 不主动刷盘，由操作系统决定回写时机
+     */
+    NONE,
+    /**
+     * 后台线程按固定周期 msync 活跃车厢中已写入的范围
+     */
+    PERIODIC,
+    /**
+     * 组提交: enqueueDurable 返回的 future 在覆盖其 offset 的批量刷盘完成后结束
+     */
+    SYNC_BATCH,
+    ;
+}
@@ -0,0 +1,17 @@
+package io.github.sunleader1997.jmemqueue.enums;
+
+public enum StorageMode {
+    /**
+     * 磁盘目录 (默认 java.io.tmpdir)，可以通过 TTL 保留历史数据
+     */
+    DISK,
+    /**
+     * 纯内存 (/dev/shm tmpfs)，没有页面回写，重启后数据丢失
+     */
+    MEMORY,
+    /**
+     * 大页 (hugetlbfs) 挂载点存放车厢，车厢大小按大页对齐，减少 TLB 缺失
+     */
+    HUGETLBFS,
+    ;
+}
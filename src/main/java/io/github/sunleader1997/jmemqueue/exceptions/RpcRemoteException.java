@@ -0,0 +1,12 @@
+package io.github.sunleader1997.jmemqueue.exceptions;
+
+/**
+ * RPC 服务端处理请求时抛出异常，message 为服务端异常的描述
+ */
+public class RpcRemoteException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public RpcRemoteException(String msg) {
+        super(msg);
+    }
+}
@@ -0,0 +1,102 @@
+package io.github.sunleader1997.jmemqueue.storage;
+
+import io.github.sunleader1997.jmemqueue.Dictionary;
+import io.github.sunleader1997.jmemqueue.enums.StorageMode;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * 存储位置策略
+ * 控制文件 (.base/.reader) 与车厢文件 (.carriage) 可以位于不同的根目录:
+ * hugetlbfs 上的文件只能整页映射，所以控制文件放在 /dev/shm，只有车厢放在大页挂载点
+ */
+public class StoragePolicy {
+    public static final Path DEV_SHM = Paths.get("/dev/shm");
+    public static final long HUGE_PAGE_2MB = 2L * 1024 * 1024;
+
+    private static final StoragePolicy DEFAULT = new StoragePolicy(StorageMode.DISK, Dictionary.PARENT_DIR, Dictionary.PARENT_DIR, 0);
+
+    private final StorageMode mode;
+    private final Path parentDir; // 控制文件根目录
+    private final Path carriageParentDir; // 车厢文件根目录
+    private final long alignment; // 车厢大小对齐字节数，0 表示不对齐
+
+    private StoragePolicy(StorageMode mode, Path parentDir, Path carriageParentDir, long alignment) {
+        this.mode = mode;
+        this.parentDir = parentDir;
+        this.carriageParentDir = carriageParentDir;
+        this.alignment = alignment;
+    }
+
+    /**
+     * 默认: ${java.io.tmpdir}/JSMQ
+     */
+    public static StoragePolicy disk() {
+        return DEFAULT;
+    }
+
+    /**
+     * 自定义磁盘目录
+     */
+    public static StoragePolicy disk(Path dir) {
+        return new StoragePolicy(StorageMode.DISK, dir, dir, 0);
+    }
+
+    /**
+     * 纯内存: /dev/shm/JSMQ
+     */
+    public static StoragePolicy memory() {
+        Path dir = DEV_SHM.resolve(Dictionary.ROOT_NAME);
+        return new StoragePolicy(StorageMode.MEMORY, dir, dir, 0);
+    }
+
+    /**
+     * 大页: 车厢位于 ${mount}/JSMQ，按 2MB 对齐
+     *
+     * @param mount hugetlbfs 挂载点，例如 /mnt/huge
+     */
+    public static StoragePolicy hugetlbfs(Path mount) {
+        return hugetlbfs(mount, HUGE_PAGE_2MB);
+    }
+
+    /**
+     * @param mount    hugetlbfs 挂载点
+     * @param pageSize 挂载点的大页大小 (pagesize= 挂载参数)
+     */
+    public static StoragePolicy hugetlbfs(Path mount, long pageSize) {
+        if (Long.bitCount(pageSize) != 1) {
+            throw new IllegalArgumentException("大页大小必须是2的幂: " + pageSize);
+        }
+        return new StoragePolicy(StorageMode.HUGETLBFS, DEV_SHM.resolve(Dictionary.ROOT_NAME), mount.resolve(Dictionary.ROOT_NAME), pageSize);
+    }
+
+    /**
+     * 车厢映射大小，按策略对齐
+     */
+    public long alignCarriageSize(long size) {
+        if (alignment <= 0) return size;
+        return (size + alignment - 1) & -alignment;
+    }
+
+    public StorageMode getMode() {
+        return mode;
+    }
+
+    public Path getParentDir() {
+        return parentDir;
+    }
+
+    public Path getCarriageParentDir() {
+        return carriageParentDir;
+    }
+
+    public long getAlignment() {
+        return alignment;
+    }
+
+    @Override
+    public String toString() {
+        return mode + "[" + parentDir + (parentDir.equals(carriageParentDir) ? "" : ", " + carriageParentDir) + "]";
+    }
+}
@@ -11,6 +11,10 @@ public class TimeToLive {
         this.timeUnit = timeUnit;
     }
 
+    public long toMillis() {
+        return timeUnit.toMillis(timeAlive);
+    }
+
     public long getCleanBefore() {
         return System.currentTimeMillis() - timeUnit.toMillis(timeAlive);
     }
@@ -0,0 +1,43 @@
+package io.github.sunleader1997.jmemqueue.wait;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 自旋 -> 让出 CPU -> park，park 时间从 minParkNanos 开始翻倍，最长 maxParkNanos
+ * 虚拟线程 park 时会让出载体线程，大量空闲消费者几乎不占用 CPU
+ */
+public final class BackoffWaitStrategy implements WaitStrategy {
+    public static final int DEF_SPIN_TRIES = 100;
+    public static final int DEF_YIELD_TRIES = 10;
+    public static final long DEF_MIN_PARK_NANOS = 1_000; // 1μs
+    public static final long DEF_MAX_PARK_NANOS = 1_000_000; // 1ms
+
+    private final int spinTries;
+    private final int yieldTries;
+    private final long minParkNanos;
+    private final long maxParkNanos;
+    private final int maxShift;
+
+    public BackoffWaitStrategy(int spinTries, int yieldTries, long minParkNanos, long maxParkNanos) {
+        if (minParkNanos <= 0 || maxParkNanos < minParkNanos) {
+            throw new IllegalArgumentException("park 时间不合法: " + minParkNanos + " - " + maxParkNanos);
+        }
+        this.spinTries = spinTries;
+        this.yieldTries = yieldTries;
+        this.minParkNanos = minParkNanos;
+        this.maxParkNanos = maxParkNanos;
+        this.maxShift = 63 - Long.numberOfLeadingZeros(maxParkNanos / minParkNanos);
+    }
+
+    @Override
+    public void idle(int idleCount) {
+        if (idleCount < spinTries) {
+            Thread.onSpinWait();
+        } else if (idleCount < spinTries + yieldTries) {
+            Thread.yield();
+        } else {
+            int shift = Math.min(idleCount - spinTries - yieldTries, maxShift);
+            LockSupport.parkNanos(Math.min(minParkNanos << shift, maxParkNanos));
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package io.github.sunleader1997.jmemqueue.wait;
+
+/**
+ * 忙等，只提示 CPU 当前处于自旋
+ */
+public final class BusySpinWaitStrategy implements WaitStrategy {
+    public static final BusySpinWaitStrategy INSTANCE = new BusySpinWaitStrategy();
+
+    private BusySpinWaitStrategy() {
+    }
+
+    @Override
+    public void idle(int idleCount) {
+        Thread.onSpinWait();
+    }
+}
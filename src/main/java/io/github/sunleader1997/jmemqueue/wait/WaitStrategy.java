@@ -0,0 +1,36 @@
+package io.github.sunleader1997.jmemqueue.wait;
+
+/**
+ * 队列为空时的等待策略
+ * 调用方在连续空轮询时传入递增的 idleCount，读到数据后从 0 重新开始
+ */
+@FunctionalInterface
+public interface WaitStrategy {
+
+    /**
+     * @param idleCount 连续空轮询次数，从 0 开始
+     */
+    void idle(int idleCount);
+
+    /**
+     * 忙等，延迟最低，独占一个 CPU 核心；不适合虚拟线程 (会占住载体线程)
+     */
+    static WaitStrategy busySpin() {
+        return BusySpinWaitStrategy.INSTANCE;
+    }
+
+    /**
+     * 先自旋再让出 CPU
+     */
+    static WaitStrategy yielding() {
+        return new YieldingWaitStrategy(YieldingWaitStrategy.DEF_SPIN_TRIES);
+    }
+
+    /**
+     * 自旋 -> 让出 CPU -> 指数退避 park，空闲时几乎不占用 CPU
+     */
+    static WaitStrategy backoff() {
+        return new BackoffWaitStrategy(BackoffWaitStrategy.DEF_SPIN_TRIES, BackoffWaitStrategy.DEF_YIELD_TRIES,
+                BackoffWaitStrategy.DEF_MIN_PARK_NANOS, BackoffWaitStrategy.DEF_MAX_PARK_NANOS);
+    }
+}
@@ -0,0 +1,23 @@
+package io.github.sunleader1997.jmemqueue.wait;
+
+/**
+ * 自旋 spinTries 次之后每次让出 CPU
+ */
+public final class YieldingWaitStrategy implements WaitStrategy {
+    public static final int DEF_SPIN_TRIES = 100;
+
+    private final int spinTries;
+
+    public YieldingWaitStrategy(int spinTries) {
+        this.spinTries = spinTries;
+    }
+
+    @Override
+    public void idle(int idleCount) {
+        if (idleCount < spinTries) {
+            Thread.onSpinWait();
+        } else {
+            Thread.yield();
+        }
+    }
+}
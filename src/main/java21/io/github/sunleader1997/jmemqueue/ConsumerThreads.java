@@ -0,0 +1,18 @@
+package io.github.sunleader1997.jmemqueue;
+
+/**
+ * 消费者线程工厂 (JDK 21+): 虚拟线程
+ * 等待时 park 会让出载体线程，每个 topic 一个消费循环也不会占用平台线程
+ */
+final class ConsumerThreads {
+    private ConsumerThreads() {
+    }
+
+    static boolean isVirtual() {
+        return true;
+    }
+
+    static Thread newThread(String name, Runnable task) {
+        return Thread.ofVirtual().name(name).unstarted(task);
+    }
+}
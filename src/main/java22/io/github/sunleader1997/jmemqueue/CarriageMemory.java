@@ -0,0 +1,143 @@
+package io.github.sunleader1997.jmemqueue;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * 车厢存储后端 (JDK 22+: MemorySegment)
+ * 多版本 JAR 中覆盖 JDK 17 的 MappedByteBuffer 实现，对外 API 必须保持一致
+ * 1. long 索引，单个车厢不再受 2GB 限制
+ * 2. 由 Arena 显式解除映射，不再依赖 Unsafe.invokeCleaner
+ * 3. 访问边界为 long 且在映射期间不变，JIT 可以把边界检查提到循环外
+ */
+public final class CarriageMemory implements AutoCloseable {
+    /**
+     * 单个车厢映射的最大字节数
+     */
+    public static final long MAX_SIZE = Long.MAX_VALUE;
+
+    // 普通读写与 ByteBuffer 默认一致使用大端序，保证与 JDK 17 进程读写同一个车厢时格式一致
+    private static final ValueLayout.OfInt INT_BE = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    private static final ValueLayout.OfLong LONG_BE = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    // 原子读写使用本地字节序，与 AtomicVarHandle 一致；坐标为 (MemorySegment, long baseOffset)
+    private static final VarHandle INT_HANDLE = ValueLayout.JAVA_INT.varHandle();
+
+    private final MemorySegment segment;
+    private final Arena arena; // 为 null 时表示包装的外部内存
+
+    private CarriageMemory(MemorySegment segment, Arena arena) {
+        this.segment = segment;
+        this.arena = arena;
+    }
+
+    /**
+     * 映射车厢文件
+     */
+    public static CarriageMemory map(FileChannel channel, FileChannel.MapMode mode, long size) throws IOException {
+        // 共享 Arena: 刷盘线程等其他线程也需要访问同一个映射
+        Arena arena = Arena.ofShared();
+        try {
+            return new CarriageMemory(channel.map(mode, 0, size, arena), arena);
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 包装已有的内存，不负责释放
+     */
+    public static CarriageMemory wrap(ByteBuffer buffer) {
+        return new CarriageMemory(MemorySegment.ofBuffer(buffer), null);
+    }
+
+    public long byteSize() {
+        return segment.byteSize();
+    }
+
+    public byte getByte(long index) {
+        return segment.get(ValueLayout.JAVA_BYTE, index);
+    }
+
+    public void putByte(long index, byte value) {
+        segment.set(ValueLayout.JAVA_BYTE, index, value);
+    }
+
+    public int getInt(long index) {
+        return segment.get(INT_BE, index);
+    }
+
+    public void putInt(long index, int value) {
+        segment.set(INT_BE, index, value);
+    }
+
+    public long getLong(long index) {
+        return segment.get(LONG_BE, index);
+    }
+
+    public void putLong(long index, long value) {
+        segment.set(LONG_BE, index, value);
+    }
+
+    public int getIntVolatile(long index) {
+        return (int) INT_HANDLE.getVolatile(segment, index);
+    }
+
+    public void setIntVolatile(long index, int value) {
+        INT_HANDLE.setVolatile(segment, index, value);
+    }
+
+    public int getIntAcquire(long index) {
+        return (int) INT_HANDLE.getAcquire(segment, index);
+    }
+
+    public void setIntRelease(long index, int value) {
+        INT_HANDLE.setRelease(segment, index, value);
+    }
+
+    public boolean compareAndSetInt(long index, int expected, int value) {
+        return INT_HANDLE.compareAndSet(segment, index, expected, value);
+    }
+
+    public void get(long index, byte[] dst, int offset, int length) {
+        MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, index, dst, offset, length);
+    }
+
+    public void put(long index, byte[] src, int offset, int length) {
+        MemorySegment.copy(src, offset, segment, ValueLayout.JAVA_BYTE, index, length);
+    }
+
+    /**
+     * 将整个映射刷新到磁盘
+     */
+    public void force() {
+        if (segment.isMapped()) {
+            segment.force();
+        }
+    }
+
+    /**
+     * 将指定范围刷新到磁盘
+     */
+    public void force(long index, long length) {
+        if (segment.isMapped()) {
+            segment.asSlice(index, length).force();
+        }
+    }
+
+    /**
+     * 解除映射，之后不能再访问
+     */
+    @Override
+    public void close() {
+        if (arena != null) {
+            arena.close();
+        }
+    }
+}
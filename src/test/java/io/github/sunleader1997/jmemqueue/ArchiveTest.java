@@ -0,0 +1,60 @@
+package io.github.sunleader1997.jmemqueue;
+
+import io.github.sunleader1997.jmemqueue.enums.ContentSize;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 冷车厢归档测试
+ */
+public class ArchiveTest {
+    private static final String TOPIC = "topic-archive";
+    private static final int CAPACITY = 1024;
+    private static final int MESSAGE_COUNT = 3000;
+
+    @Test
+    public void replayArchivedCarriages() throws Exception {
+        Dictionary.deleteTopic(TOPIC);
+        JSharedMemQueue queue = JSharedMemQueue.builder(TOPIC)
+                .contentSize(ContentSize.KB_1)
+                .capacity(CAPACITY)
+                .tagged(true)
+                .build();
+        try (JSharedMemProducer producer = queue.createProducer()) {
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                producer.enqueue(i, ("archived-" + i).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        // 崩溃进程留下的临时 reader (offset 为 0，没有存活成员) 不阻止归档
+        Path staleReader = Dictionary.getTopicDir(TOPIC).resolve(UUID.randomUUID() + JSharedMemArchiver.READER_FILE_ENDS);
+        Files.write(staleReader, new byte[JSharedMemMembership.FILE_SIZE]);
+        // group1 消费完之前，不允许归档
+        try (JSharedMemReader reader = queue.createReader("group1");
+             JSharedMemArchiver archiver = queue.createArchiver(1, TimeUnit.HOURS)) {
+            Assertions.assertEquals(0, archiver.archive());
+            while (reader.dequeue() != null) ;
+            // 最后一个车厢没有写满，不归档
+            Assertions.assertEquals(2, archiver.archive());
+        }
+        Path topicDir = Dictionary.getTopicDir(TOPIC);
+        Assertions.assertFalse(Files.exists(topicDir.resolve("0.carriage")));
+        Assertions.assertTrue(Files.exists(topicDir.resolve("2.carriage")));
+        Assertions.assertTrue(Files.size(topicDir.resolve("0.archive")) < CAPACITY * 1024L / 10);
+        // 新的 group 从头回放，归档的车厢对读者透明
+        try (JSharedMemReader reader = queue.createReader()) {
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                JSharedMemSegment segment = reader.getReadableSegment();
+                Assertions.assertNotNull(segment);
+                Assertions.assertEquals(i, segment.getTag());
+                Assertions.assertEquals("archived-" + i, new String(segment.readContent(), StandardCharsets.UTF_8));
+            }
+            Assertions.assertNull(reader.dequeue());
+        }
+    }
+}
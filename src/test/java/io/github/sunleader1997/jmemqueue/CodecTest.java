@@ -0,0 +1,68 @@
+package io.github.sunleader1997.jmemqueue;
+
+import io.github.sunleader1997.jmemqueue.codec.Codec;
+import io.github.sunleader1997.jmemqueue.codec.Codecs;
+import io.github.sunleader1997.jmemqueue.codec.Flyweight;
+import io.github.sunleader1997.jmemqueue.enums.ContentSize;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 类型编解码测试
+ */
+public class CodecTest {
+    private static final String TOPIC = "topic-codec";
+
+    /**
+     * 行情: symbol(8) price(8)
+     */
+    static final class Quote extends Flyweight {
+        long symbol() {
+            return segment.getLong(0);
+        }
+
+        double price() {
+            return segment.getDouble(8);
+        }
+    }
+
+    static final Codec<double[]> QUOTE = new Codec<>() {
+        @Override
+        public int encode(double[] value, JSharedMemSegment segment) {
+            if (value.length != 2) throw new IllegalArgumentException("bad quote");
+            segment.putLong(0, (long) value[0]);
+            segment.putDouble(8, value[1]);
+            return 16;
+        }
+
+        @Override
+        public double[] decode(JSharedMemSegment segment) {
+            return new double[]{segment.getLong(0), segment.getDouble(8)};
+        }
+    };
+
+    @Test
+    public void typedRoundTrip() throws Exception {
+        Dictionary.deleteTopic(TOPIC);
+        JSharedMemQueue queue = new JSharedMemQueue(TOPIC, ContentSize.B_512, 1024);
+        try (JSharedMemProducer producer = queue.createProducer();
+             JSharedMemReader reader = queue.createReader()) {
+            producer.enqueueLong(Long.MIN_VALUE);
+            producer.enqueueInts(1, 2, 3);
+            Assertions.assertThrows(IllegalArgumentException.class, () -> producer.enqueue(new double[]{1}, QUOTE));
+            Assertions.assertThrows(IndexOutOfBoundsException.class, () -> producer.enqueueInts(new int[200]));
+            producer.enqueue(new double[]{7, 99.5}, QUOTE);
+            producer.enqueue("text", Codecs.UTF8);
+
+            Assertions.assertEquals(Long.MIN_VALUE, reader.dequeue(Codecs.LONG));
+            Assertions.assertArrayEquals(new int[]{1, 2, 3}, reader.dequeue(Codecs.INTS));
+            // 编码失败的两条被废弃，读者直接跳过
+            Quote quote = reader.dequeue(new Quote());
+            Assertions.assertEquals(7, quote.symbol());
+            Assertions.assertEquals(99.5, quote.price());
+            Assertions.assertEquals(16, quote.length());
+            Assertions.assertEquals("text", reader.dequeue(Codecs.UTF8));
+            Assertions.assertNull(reader.dequeue(Codecs.LONG));
+        }
+    }
+}
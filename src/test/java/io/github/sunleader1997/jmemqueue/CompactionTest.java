@@ -0,0 +1,119 @@
+package io.github.sunleader1997.jmemqueue;
+
+import io.github.sunleader1997.jmemqueue.enums.ContentSize;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 压实 topic 测试
+ */
+public class CompactionTest {
+    private static final String TOPIC = "topic-compacted";
+    private static final int CAPACITY = 1024;
+    private static final int MESSAGE_COUNT = 3000;
+    private static final int KEY_COUNT = 10;
+
+    @Test
+    public void compactAndSnapshot() throws Exception {
+        Dictionary.deleteTopic(TOPIC);
+        JSharedMemQueue queue = JSharedMemQueue.builder(TOPIC)
+                .contentSize(ContentSize.KB_1)
+                .capacity(CAPACITY)
+                .compacted(1024)
+                .build();
+        try (JSharedMemProducer producer = queue.createProducer()) {
+            Assertions.assertThrows(IllegalStateException.class, () -> producer.enqueue(new byte[1]));
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                producer.enqueue(i % KEY_COUNT, ("v-" + i).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        // 压实不等待 group，前两个车厢的记录全部被最后一个车厢覆盖
+        try (JSharedMemArchiver archiver = queue.createArchiver(1, TimeUnit.HOURS)) {
+            Assertions.assertEquals(2, archiver.archive());
+            Assertions.assertEquals(0, archiver.archive());
+        }
+        try (JSharedMemReader reader = queue.createReader()) {
+            JSharedMemSegment segment = reader.getReadableSegment();
+            Assertions.assertNotNull(segment);
+            Assertions.assertEquals("v-" + 2 * CAPACITY, new String(segment.readContent(), StandardCharsets.UTF_8));
+        }
+        Map<Long, String> state = new HashMap<>();
+        long resumeOffset;
+        try (JSharedMemSnapshot snapshot = queue.snapshot()) {
+            snapshot.forEach((key, value) -> state.put(key, new String(value, StandardCharsets.UTF_8)));
+            resumeOffset = snapshot.getResumeOffset();
+        }
+        Assertions.assertEquals(MESSAGE_COUNT, resumeOffset);
+        Assertions.assertEquals(KEY_COUNT, state.size());
+        for (int key = 0; key < KEY_COUNT; key++) {
+            Assertions.assertEquals("v-" + (MESSAGE_COUNT - KEY_COUNT + key), state.get((long) key));
+        }
+        // 新消费者从快照之后开始消费
+        try (JSharedMemProducer producer = queue.createProducer();
+             JSharedMemReader reader = queue.createReader()) {
+            producer.enqueue(3, "v-new".getBytes(StandardCharsets.UTF_8));
+            reader.seek(resumeOffset);
+            Assertions.assertEquals("v-new", new String(reader.dequeue(), StandardCharsets.UTF_8));
+            Assertions.assertNull(reader.dequeue());
+        }
+    }
+
+    @Test
+    public void keyIndexKeepsLatestOffset() {
+        Dictionary.deleteTopic(TOPIC + "-index");
+        Path path = Dictionary.getAndMakeTopicDir(TOPIC + "-index").resolve("test.keyindex");
+        try (JSharedMemKeyIndex index = new JSharedMemKeyIndex(path, 100)) {
+            Assertions.assertEquals(128, index.getSlotCount());
+            index.put(Long.MIN_VALUE, 7);
+            index.put(Long.MIN_VALUE, 3); // 旧的 offset 被忽略
+            index.put(42, 0);
+            Assertions.assertEquals(7, index.get(Long.MIN_VALUE));
+            Assertions.assertEquals(0, index.get(42));
+            Assertions.assertEquals(-1, index.get(43));
+        }
+        // 重新打开后以文件中的槽位数量为准
+        try (JSharedMemKeyIndex index = new JSharedMemKeyIndex(path, 1 << 20)) {
+            Assertions.assertEquals(128, index.getSlotCount());
+            Assertions.assertEquals(2, index.size());
+            Assertions.assertEquals(7, index.get(Long.MIN_VALUE));
+        }
+    }
+
+    /**
+     * 写入者在占用槽位之后、写入 offset 之前崩溃: 其他 key 的读写直接越过这些槽位，不会等待
+     */
+    @Test
+    public void keyIndexSurvivesHalfWrittenSlots() throws Exception {
+        Dictionary.deleteTopic(TOPIC + "-crash");
+        Path path = Dictionary.getAndMakeTopicDir(TOPIC + "-crash").resolve("test.keyindex");
+        new JSharedMemKeyIndex(path, 4).close();
+        try (RandomAccessFile accessFile = new RandomAccessFile(path.toFile(), "rw")) {
+            MappedByteBuffer memory = accessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 128 + 4 * 16);
+            for (int slot = 0; slot < 3; slot++) { // 只写入了 key
+                AtomicVarHandle.setLong(memory, 128 + slot * 16, 100 + slot);
+            }
+        }
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            try (JSharedMemKeyIndex index = new JSharedMemKeyIndex(path, 4)) {
+                Assertions.assertEquals(-1, index.get(5));
+                index.put(5, 9);
+                Assertions.assertEquals(9, index.get(5));
+                index.put(0, 4); // key 0 与空槽位无法区分，记录在头部
+                Assertions.assertEquals(4, index.get(0));
+                Map<Long, Long> entries = new HashMap<>();
+                index.forEach(entries::put);
+                Assertions.assertEquals(Map.of(5L, 9L, 0L, 4L), entries);
+            }
+        });
+    }
+}
@@ -15,8 +15,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * 消费者测试用例 - 使用Reactor框架
- * 单线程scheduler负责dequeue消息，多线程负责打印（模拟业务消费数据）
+ * 消费者测试用例 - 手动维护线程池 (Flow.Publisher 与虚拟线程运行时见 ReactiveTest)
+ * 同一个group的多个线程各自dequeue消息并处理（模拟业务消费数据）
  */
 public class ConsumerTest {
 
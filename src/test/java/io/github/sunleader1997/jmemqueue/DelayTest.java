@@ -0,0 +1,157 @@
+package io.github.sunleader1997.jmemqueue;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 延迟消息测试
+ */
+public class DelayTest {
+    private static final String TOPIC = "topic-delay";
+
+    @Test
+    public void releaseInDueOrderAndSurviveRestart() throws Exception {
+        Dictionary.deleteTopic(TOPIC);
+        Dictionary.deleteTopic(TOPIC + JSharedMemDelayScheduler.DELAY_SUFFIX);
+        JSharedMemQueue queue = new JSharedMemQueue(TOPIC, 64, 1024);
+        try (JSharedMemProducer producer = queue.createProducer();
+             JSharedMemReader reader = queue.createReader("group1")) {
+            long begin = System.currentTimeMillis();
+            try (JSharedMemDelayScheduler scheduler = queue.createDelayScheduler()) {
+                producer.enqueueDelayed(bytes("a"), 400, TimeUnit.MILLISECONDS);
+                producer.enqueueDelayed(bytes("b"), 150, TimeUnit.MILLISECONDS);
+                producer.enqueueDelayed(bytes("c"), 0, TimeUnit.MILLISECONDS);
+                producer.enqueueDelayed(bytes("d"), 1, TimeUnit.HOURS);
+                List<String> received = receive(reader, 3, 5000);
+                Assertions.assertEquals(List.of("c", "b", "a"), received);
+                Assertions.assertTrue(System.currentTimeMillis() - begin >= 400);
+                Assertions.assertEquals(3, scheduler.getReleasedCount());
+                Assertions.assertEquals(1, scheduler.getScheduledCount());
+            }
+            // 重启后只恢复还没有到期的消息，已经投递的不会重复
+            producer.enqueueDelayed(bytes("e"), 200, TimeUnit.MILLISECONDS);
+            try (JSharedMemDelayScheduler scheduler = queue.createDelayScheduler()) {
+                Assertions.assertEquals(List.of("e"), receive(reader, 1, 5000));
+                Assertions.assertTrue(receive(reader, 1, 300).isEmpty());
+                Assertions.assertEquals(1, scheduler.getScheduledCount());
+            }
+        }
+    }
+
+    /**
+     * 同一个 topic 只能有一个调度器；非法的延迟直接拒绝；压实 topic 拒绝时不泄漏映射
+     */
+    @Test
+    public void schedulerAndDelayValidation() throws Exception {
+        Dictionary.deleteTopic(TOPIC);
+        Dictionary.deleteTopic(TOPIC + JSharedMemDelayScheduler.DELAY_SUFFIX);
+        JSharedMemQueue queue = new JSharedMemQueue(TOPIC, 64, 1024);
+        try (JSharedMemDelayScheduler ignored = queue.createDelayScheduler()) {
+            Assertions.assertThrows(IllegalStateException.class, queue::createDelayScheduler);
+        }
+        queue.createDelayScheduler().close(); // 关闭后锁被释放
+        try (JSharedMemProducer producer = queue.createProducer()) {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> producer.enqueueDelayed(bytes("x"), -1, TimeUnit.MILLISECONDS));
+            Assertions.assertThrows(IllegalArgumentException.class, () -> producer.enqueueDelayed(bytes("x"), Long.MAX_VALUE, TimeUnit.DAYS));
+            Assertions.assertThrows(IllegalArgumentException.class, () -> producer.enqueueDelayed(bytes("x"), 8, TimeUnit.DAYS));
+        }
+
+        String compactedTopic = TOPIC + "-compacted";
+        Dictionary.deleteTopic(compactedTopic);
+        JSharedMemQueue compacted = JSharedMemQueue.builder(compactedTopic).msgMaxSize(64).capacity(1024).compacted(1024).build();
+        int before = JSharedMemRegistry.mappingCount();
+        Assertions.assertThrows(IllegalStateException.class, compacted::createDelayScheduler);
+        Assertions.assertEquals(before, JSharedMemRegistry.mappingCount());
+    }
+
+    /**
+     * 当前 topic 能写入的数据都能延迟写入；写入主 topic 失败的消息被丢弃，不阻塞后续消息与低水位
+     */
+    @Test
+    public void fullSizeAndFailedRelease() throws Exception {
+        String delayTopic = TOPIC + JSharedMemDelayScheduler.DELAY_SUFFIX;
+        Dictionary.deleteTopic(TOPIC);
+        Dictionary.deleteTopic(delayTopic);
+        JSharedMemQueue queue = new JSharedMemQueue(TOPIC, 64, 1024);
+        try (JSharedMemProducer producer = queue.createProducer();
+             JSharedMemReader reader = queue.createReader("group1");
+             JSharedMemDelayScheduler scheduler = queue.createDelayScheduler()) {
+            producer.enqueueDelayed(new byte[64], 0, TimeUnit.MILLISECONDS);
+            Assertions.assertThrows(IllegalArgumentException.class, () -> producer.enqueueDelayed(new byte[65], 0, TimeUnit.MILLISECONDS));
+            Assertions.assertEquals(1, receive(reader, 2, 1000).size());
+            Assertions.assertEquals(1, scheduler.getReleasedCount());
+        }
+
+        String taggedTopic = TOPIC + "-tagged";
+        Dictionary.deleteTopic(taggedTopic);
+        Dictionary.deleteTopic(taggedTopic + JSharedMemDelayScheduler.DELAY_SUFFIX);
+        JSharedMemQueue tagged = JSharedMemQueue.builder(taggedTopic).msgMaxSize(64).capacity(1024).tagged(true).build();
+        try (JSharedMemProducer producer = tagged.createProducer();
+             JSharedMemReader reader = tagged.createReader("group1")) {
+            try (JSharedMemDelayScheduler scheduler = tagged.createDelayScheduler();
+                 JSharedMemProducer delayLog = new JSharedMemProducer(producer.createDelayBaseInfo())) {
+                // 直接写入延迟日志，超过主 topic 的容量 (56B)，到期后写入失败
+                delayLog.enqueue(System.currentTimeMillis(), new byte[60]);
+                producer.enqueueDelayed(bytes("ok"), 0, TimeUnit.MILLISECONDS);
+                Assertions.assertEquals(List.of("ok"), receive(reader, 1, 5000));
+                Assertions.assertEquals(1, scheduler.getReleasedCount());
+                Assertions.assertEquals(0, scheduler.getScheduledCount());
+            }
+            try (JSharedMemReader watermark = new JSharedMemQueue(taggedTopic + JSharedMemDelayScheduler.DELAY_SUFFIX).createReader(JSharedMemDelayScheduler.DELAY_GROUP)) {
+                Assertions.assertEquals(2, watermark.getReaderOffset());
+            }
+        }
+    }
+
+    /**
+     * 跨越多层的条目都在到期的刻度上到期
+     */
+    @Test
+    public void timingWheelCascade() {
+        long start = 1_000_000_007L;
+        TimingWheel wheel = new TimingWheel(1, start);
+        Random random = new Random(42);
+        int count = 10_000;
+        for (int i = 0; i < count; i++) {
+            long delay = random.nextInt(4) == 0 ? random.nextInt(300) : random.nextInt(20_000_000);
+            wheel.add(start + delay, i);
+        }
+        wheel.add(start - 10, -1); // 已经到期
+        long[] now = {start};
+        int[] expired = {0};
+        while (now[0] < start + 20_000_000) {
+            now[0] += 1 + random.nextInt(1000);
+            wheel.advance(now[0], (dueMs, value) -> {
+                Assertions.assertTrue(dueMs <= now[0]);
+                Assertions.assertTrue(dueMs > now[0] - 1000 || value == -1);
+                expired[0]++;
+            });
+        }
+        Assertions.assertEquals(count + 1, expired[0]);
+        Assertions.assertEquals(0, wheel.size());
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> receive(JSharedMemReader reader, int count, long timeoutMs) throws InterruptedException {
+        List<String> received = new ArrayList<>();
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (received.size() < count && System.currentTimeMillis() < deadline) {
+            byte[] data = reader.dequeue();
+            if (data == null) {
+                Thread.sleep(5);
+            } else {
+                received.add(new String(data, StandardCharsets.UTF_8));
+            }
+        }
+        return received;
+    }
+}
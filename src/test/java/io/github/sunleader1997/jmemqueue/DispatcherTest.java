@@ -0,0 +1,91 @@
+package io.github.sunleader1997.jmemqueue;
+
+import io.github.sunleader1997.jmemqueue.enums.ContentSize;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 按 key 保序的分发器测试
+ */
+public class DispatcherTest {
+    private static final String TOPIC = "topic-dispatcher";
+    private static final int MESSAGE_COUNT = 20_000;
+    private static final int KEY_COUNT = 16;
+
+    @Test
+    public void keepsOrderPerKey() throws Exception {
+        Dictionary.deleteTopic(TOPIC);
+        JSharedMemQueue queue = JSharedMemQueue.builder(TOPIC)
+                .contentSize(ContentSize.KB_1)
+                .capacity(4096)
+                .tagged(true)
+                .build();
+        try (JSharedMemProducer producer = queue.createProducer()) {
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                producer.enqueue(i % KEY_COUNT, ByteBuffer.allocate(4).putInt(i / KEY_COUNT).array());
+            }
+        }
+        AtomicIntegerArray next = new AtomicIntegerArray(KEY_COUNT); // 每个 key 期望的下一个序号
+        AtomicInteger disorder = new AtomicInteger();
+        AtomicInteger processed = new AtomicInteger();
+        JSharedMemDispatcher dispatcher = queue.createDispatcher("group1", 4, (key, data) -> {
+            int sequence = ByteBuffer.wrap(data).getInt();
+            if (!next.compareAndSet((int) key, sequence, sequence + 1)) {
+                disorder.incrementAndGet();
+            }
+            processed.incrementAndGet();
+        });
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (processed.get() < MESSAGE_COUNT && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        dispatcher.close();
+        Assertions.assertEquals(MESSAGE_COUNT, processed.get());
+        Assertions.assertEquals(0, disorder.get());
+        // 所有通道处理完之后提交到末尾，重启后没有需要重新处理的消息
+        try (JSharedMemReader reader = queue.createReader("group1")) {
+            Assertions.assertEquals(MESSAGE_COUNT, reader.getReaderOffset());
+        }
+    }
+
+    /**
+     * keyFunction 抛出异常的消息被跳过，领取线程继续，group offset 照常提交
+     */
+    @Test
+    public void skipsFailedKey() throws Exception {
+        String topic = TOPIC + "-bad-key";
+        Dictionary.deleteTopic(topic);
+        JSharedMemQueue queue = new JSharedMemQueue(topic, ContentSize.B_512, 4096);
+        try (JSharedMemProducer producer = queue.createProducer()) {
+            for (int i = 0; i < 100; i++) {
+                producer.enqueue(ByteBuffer.allocate(4).putInt(i).array());
+            }
+        }
+        AtomicInteger processed = new AtomicInteger();
+        JSharedMemDispatcher dispatcher = queue.createDispatcher("group1", 2, segment -> {
+            int value = segment.getInt(0);
+            if (value % 10 == 0) throw new IllegalArgumentException("bad key " + value);
+            return value;
+        }, (key, data) -> processed.incrementAndGet());
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (dispatcher.getCommittedOffset() < 100 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(100, dispatcher.getCommittedOffset());
+        dispatcher.close();
+        Assertions.assertEquals(90, processed.get());
+    }
+
+    @Test
+    public void laneOfIsStable() {
+        for (long key = -100; key < 100; key++) {
+            int lane = JSharedMemDispatcher.laneOf(key, 3);
+            Assertions.assertTrue(lane >= 0 && lane < 3);
+            Assertions.assertEquals(lane, JSharedMemDispatcher.laneOf(key, 3));
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package io.github.sunleader1997.jmemqueue;
+
+import io.github.sunleader1997.jmemqueue.enums.ContentSize;
+import io.github.sunleader1997.jmemqueue.enums.Durability;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 持久化测试
+ */
+public class DurabilityTest {
+    private static final String TOPIC = "topic-durable";
+
+    /**
+     * 组提交: 所有 future 都应在刷盘后结束，并且跨越车厢
+     */
+    @Test
+    public void syncBatch() throws Exception {
+        Dictionary.deleteTopic(TOPIC);
+        JSharedMemQueue queue = JSharedMemQueue.builder(TOPIC)
+                .contentSize(ContentSize.B_512)
+                .capacity(1024)
+                .durability(Durability.SYNC_BATCH, 50, TimeUnit.MILLISECONDS)
+                .build();
+        try (JSharedMemProducer producer = queue.createProducer()) {
+            List<CompletableFuture<Long>> futures = new ArrayList<>();
+            for (int i = 0; i < 3000; i++) {
+                futures.add(producer.enqueueDurable(("durable-" + i).getBytes(StandardCharsets.UTF_8)));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+            for (int i = 0; i < futures.size(); i++) {
+                Assertions.assertEquals(i, futures.get(i).get());
+            }
+        }
+    }
+
+    /**
+     * 被领取但没有写完的 SMG (生产者崩溃) 不应挡住之后的请求；关闭后未完成与新登记的请求都以异常结束
+     */
+    @Test
+    public void holeAndClose() throws Exception {
+        Dictionary.deleteTopic(TOPIC);
+        JSharedMemQueue queue = JSharedMemQueue.builder(TOPIC)
+                .contentSize(ContentSize.B_512)
+                .capacity(1024)
+                .durability(Durability.SYNC_BATCH, 50, TimeUnit.MILLISECONDS)
+                .build();
+        JSharedMemBaseInfo baseInfo = new JSharedMemBaseInfo(TOPIC, ContentSize.B_512.getSize(), 1024);
+        baseInfo.mmap(FileChannel.MapMode.READ_WRITE);
+        try (JSharedMemProducer producer = queue.createProducer()) {
+            producer.enqueueDurable("before".getBytes(StandardCharsets.UTF_8)).get(5, TimeUnit.SECONDS);
+            long hole = baseInfo.getAndIncreaseTotalOffset(); // 领取后不写
+            CompletableFuture<Long> after = producer.enqueueDurable("after".getBytes(StandardCharsets.UTF_8));
+            Assertions.assertEquals(hole + 1, after.get(5, TimeUnit.SECONDS));
+
+            JSharedMemFlusher flusher = new JSharedMemFlusher(new JSharedMemBaseInfo(TOPIC, ContentSize.B_512.getSize(), 1024),
+                    Durability.SYNC_BATCH, 50, TimeUnit.MILLISECONDS);
+            CompletableFuture<Long> pending = flusher.register(hole + 2); // 还没有写入
+            flusher.close();
+            Assertions.assertThrows(ExecutionException.class, () -> pending.get(5, TimeUnit.SECONDS));
+            Assertions.assertTrue(flusher.register(hole + 2).isCompletedExceptionally());
+        } finally {
+            baseInfo.close();
+        }
+    }
+}
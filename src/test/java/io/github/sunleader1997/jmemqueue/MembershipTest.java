@@ -0,0 +1,72 @@
+package io.github.sunleader1997.jmemqueue;
+
+import io.github.sunleader1997.jmemqueue.ttl.JCleaner;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * group 成员表测试
+ */
+public class MembershipTest {
+    private static final String TOPIC = "topic-membership";
+
+    @Test
+    public void joinHeartbeatAndEvict() throws Exception {
+        Dictionary.deleteTopic(TOPIC);
+        JSharedMemQueue queue = new JSharedMemQueue(TOPIC, 64, 1024);
+        try (JSharedMemProducer producer = queue.createProducer()) {
+            for (int i = 0; i < 10; i++) {
+                producer.enqueue(new byte[8]);
+            }
+        }
+        long pid = ProcessHandle.current().pid();
+        try (JSharedMemReader reader = queue.createReader("group1");
+             JSharedMemReader other = queue.createReader("group1")) {
+            List<JSharedMemMember> members = reader.members();
+            Assertions.assertEquals(2, members.size());
+            Assertions.assertEquals(pid, members.get(0).getPid());
+            Assertions.assertNotEquals(members.get(0).getMemberId(), members.get(1).getMemberId());
+
+            while (reader.dequeue() != null) ;
+            reader.heartbeat(System.currentTimeMillis());
+            long consumed = reader.members().stream().mapToLong(JSharedMemMember::getConsumed).sum();
+            Assertions.assertEquals(10, consumed);
+
+            // 已经退出的进程与心跳超时的成员被驱逐
+            Process exited = new ProcessBuilder("true").start();
+            exited.waitFor();
+            JSharedMemMembership membership = reader.getMembership();
+            membership.join(exited.pid(), 1, System.currentTimeMillis());
+            membership.join(pid, 2, System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1));
+            Assertions.assertEquals(4, reader.members().size());
+            Assertions.assertEquals(2, reader.evictStaleMembers(30, TimeUnit.SECONDS));
+            Assertions.assertEquals(2, reader.members().size());
+
+            // 加入到一半就崩溃的 slot (generation 为奇数但没有写 ready)，持续超时后回收
+            int halfJoined = JSharedMemMembership.MAX_MEMBERS - 1;
+            try (FileChannel channel = FileChannel.open(reader.getReaderPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, JSharedMemMembership.FILE_SIZE);
+                buffer.order(ByteOrder.nativeOrder()).putLong(JSharedMemBaseInfo.CACHE_LINE_PAD * (1 + halfJoined), 1);
+                JCleaner.clean(buffer);
+            }
+            long now = System.currentTimeMillis();
+            long timeout = TimeUnit.SECONDS.toMillis(30);
+            Assertions.assertEquals(0, membership.evict(now - 2 * timeout, timeout)); // 第一次观察到
+            Assertions.assertEquals(0, membership.evict(now - timeout - 1, timeout));
+            Assertions.assertEquals(2, reader.members().size());
+            Assertions.assertEquals(1, membership.evict(now, timeout));
+            Assertions.assertEquals(2, reader.members().size());
+        }
+        // 关闭后离开成员表
+        try (JSharedMemReader reader = queue.createReader("group1")) {
+            Assertions.assertEquals(1, reader.members().size());
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package io.github.sunleader1997.jmemqueue;
+
+import io.github.sunleader1997.jmemqueue.enums.ContentSize;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分区测试
+ */
+public class PartitionTest {
+    private static final String TOPIC = "topic-partitioned";
+    private static final int PARTITIONS = 4;
+    private static final int KEYS = 16;
+    private static final int MESSAGE_COUNT = 10_000;
+
+    @Test
+    public void keyedRouting() throws Exception {
+        Dictionary.deleteTopic(TOPIC);
+        for (int i = 0; i < PARTITIONS; i++) {
+            Dictionary.deleteTopic(TOPIC + JSharedMemQueue.PARTITION_SEPARATOR + i);
+        }
+        JSharedMemQueue queue = JSharedMemQueue.builder(TOPIC)
+                .contentSize(ContentSize.B_512)
+                .capacity(4096)
+                .partitions(PARTITIONS)
+                .build();
+        try (JSharedMemPartitionedProducer producer = queue.createPartitionedProducer()) {
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                long key = i % KEYS;
+                producer.enqueue(key, ByteBuffer.allocate(16).putLong(key).putLong(i).array());
+            }
+        }
+        int consumed = 0;
+        for (int member = 0; member < 2; member++) {
+            try (JSharedMemPartitionedReader reader = queue.createPartitionedReader("group1", member, 2)) {
+                Map<Long, Long> lastSeq = new HashMap<>();
+                byte[] data;
+                while ((data = reader.dequeue()) != null) {
+                    ByteBuffer buffer = ByteBuffer.wrap(data);
+                    long key = buffer.getLong();
+                    long seq = buffer.getLong();
+                    int partition = JSharedMemPartitionedProducer.partitionFor(key, PARTITIONS);
+                    Assertions.assertEquals(member, partition % 2, "分区分配给了错误的成员");
+                    Long last = lastSeq.put(key, seq);
+                    Assertions.assertTrue(last == null || last < seq, "同一个 key 乱序");
+                    consumed++;
+                }
+            }
+        }
+        Assertions.assertEquals(MESSAGE_COUNT, consumed);
+        // 分区队列不能直接读写基础 topic
+        Assertions.assertThrows(IllegalStateException.class, queue::createProducer);
+        Assertions.assertThrows(IllegalStateException.class, () -> queue.createReader());
+        Assertions.assertThrows(IllegalStateException.class, () -> queue.createReader("group1"));
+        Assertions.assertThrows(IllegalStateException.class, queue::createDelayScheduler);
+    }
+
+    @Test
+    public void partitionCountMismatch() {
+        JSharedMemQueue queue = JSharedMemQueue.builder(TOPIC + "-mismatch").partitions(2).build();
+        queue.partition(0);
+        JSharedMemQueue other = JSharedMemQueue.builder(TOPIC + "-mismatch").partitions(3).build();
+        Assertions.assertThrows(IllegalStateException.class, () -> other.partition(0));
+        Dictionary.deleteTopic(TOPIC + "-mismatch");
+    }
+
+    /**
+     * 压实分区按 key 写入 tag；byte[] key 无法精确压实，直接拒绝
+     */
+    @Test
+    public void compactedPartitions() throws Exception {
+        String topic = TOPIC + "-compacted";
+        Dictionary.deleteTopic(topic);
+        for (int i = 0; i < 2; i++) {
+            Dictionary.deleteTopic(topic + JSharedMemQueue.PARTITION_SEPARATOR + i);
+        }
+        JSharedMemQueue queue = JSharedMemQueue.builder(topic).msgMaxSize(64).capacity(1024).partitions(2).compacted(64).build();
+        try (JSharedMemPartitionedProducer producer = queue.createPartitionedProducer()) {
+            for (long key = 0; key < 8; key++) {
+                producer.enqueue(key, ByteBuffer.allocate(8).putLong(key).array());
+            }
+            Assertions.assertThrows(IllegalStateException.class, () -> producer.enqueue(new byte[]{1}, new byte[8]));
+        }
+        int consumed = 0;
+        for (int p = 0; p < 2; p++) {
+            try (JSharedMemReader reader = queue.partition(p).createReader("group1")) {
+                JSharedMemSegment segment;
+                while ((segment = reader.getReadableSegment()) != null) {
+                    Assertions.assertEquals(segment.getTag(), ByteBuffer.wrap(segment.readContent()).getLong());
+                    Assertions.assertEquals(p, JSharedMemPartitionedProducer.partitionFor(segment.getTag(), 2));
+                    consumed++;
+                }
+            }
+        }
+        Assertions.assertEquals(8, consumed);
+    }
+
+    /**
+     * 多个进程 (这里用线程模拟) 同时创建分区文件，只有一个写入，其他读取到相同的分区数
+     */
+    @Test
+    public void concurrentPartitionFile() throws Exception {
+        String topic = TOPIC + "-race";
+        Dictionary.deleteTopic(topic);
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                return JSharedMemQueue.builder(topic).partitions(3).build().partition(0);
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        Dictionary.deleteTopic(topic);
+    }
+}
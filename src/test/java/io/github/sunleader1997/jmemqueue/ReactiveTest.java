@@ -0,0 +1,96 @@
+package io.github.sunleader1997.jmemqueue;
+
+import io.github.sunleader1997.jmemqueue.enums.ContentSize;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Flow.Publisher 与消费者运行时测试
+ */
+public class ReactiveTest {
+    private static final String TOPIC = "topic-reactive";
+    private static final int MESSAGE_COUNT = 10_000;
+
+    private JSharedMemQueue produce() throws Exception {
+        Dictionary.deleteTopic(TOPIC);
+        JSharedMemQueue queue = new JSharedMemQueue(TOPIC, ContentSize.KB_1, 4096);
+        try (JSharedMemProducer producer = queue.createProducer()) {
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                producer.enqueue(ByteBuffer.allocate(4).putInt(i).array());
+            }
+        }
+        return queue;
+    }
+
+    @Test
+    public void publisherHonoursDemand() throws Exception {
+        JSharedMemQueue queue = produce();
+        try (JSharedMemReader reader = queue.createReader();
+             JSharedMemPublisher publisher = new JSharedMemPublisher(reader)) {
+            CountDownLatch firstBatch = new CountDownLatch(5);
+            CountDownLatch done = new CountDownLatch(1);
+            AtomicInteger expected = new AtomicInteger();
+            AtomicInteger errors = new AtomicInteger();
+            Flow.Subscription[] subscription = new Flow.Subscription[1];
+            publisher.subscribe(new Flow.Subscriber<>() {
+                @Override
+                public void onSubscribe(Flow.Subscription s) {
+                    subscription[0] = s;
+                    s.request(5);
+                }
+
+                @Override
+                public void onNext(ByteBuffer item) {
+                    if (item.getInt() != expected.getAndIncrement()) errors.incrementAndGet();
+                    firstBatch.countDown();
+                    if (expected.get() == MESSAGE_COUNT) done.countDown();
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    errors.incrementAndGet();
+                }
+
+                @Override
+                public void onComplete() {
+                }
+            });
+            Assertions.assertTrue(firstBatch.await(10, TimeUnit.SECONDS));
+            Thread.sleep(50);
+            // 没有新的需求时不领取 offset
+            Assertions.assertEquals(5, expected.get());
+            Assertions.assertEquals(5, reader.getReaderOffset());
+            subscription[0].request(Long.MAX_VALUE);
+            Assertions.assertTrue(done.await(10, TimeUnit.SECONDS));
+            subscription[0].cancel();
+            Assertions.assertEquals(0, errors.get());
+        }
+    }
+
+    @Test
+    public void runtimeConsumesGroup() throws Exception {
+        JSharedMemQueue queue = produce();
+        AtomicLong sum = new AtomicLong();
+        AtomicInteger count = new AtomicInteger();
+        try (JSharedMemReader reader = queue.createReader();
+             JSharedMemConsumerRuntime runtime = new JSharedMemConsumerRuntime()) {
+            runtime.start(reader, 4, segment -> {
+                sum.addAndGet(ByteBuffer.wrap(segment.readContent()).getInt());
+                count.incrementAndGet();
+            });
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (count.get() < MESSAGE_COUNT && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        }
+        Assertions.assertEquals(MESSAGE_COUNT, count.get());
+        Assertions.assertEquals((long) MESSAGE_COUNT * (MESSAGE_COUNT - 1) / 2, sum.get());
+    }
+}
@@ -0,0 +1,138 @@
+package io.github.sunleader1997.jmemqueue;
+
+import io.github.sunleader1997.jmemqueue.enums.ContentSize;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 读者测试
+ */
+public class ReaderTest {
+    private static final String TOPIC = "topic-reader";
+
+    /**
+     * 生产者领取了新车厢的 offset、还没有创建车厢文件时，读者应等待而不是把整个车厢当作已清理跳过
+     */
+    @Test
+    public void pendingHeadCarriage() throws Exception {
+        Dictionary.deleteTopic(TOPIC);
+        JSharedMemQueue queue = new JSharedMemQueue(TOPIC, ContentSize.B_512, 4);
+        JSharedMemBaseInfo baseInfo = new JSharedMemBaseInfo(TOPIC, ContentSize.B_512.getSize(), 4);
+        baseInfo.mmap(FileChannel.MapMode.READ_WRITE);
+        try (JSharedMemProducer producer = queue.createProducer();
+             JSharedMemReader reader = queue.createReader("pending")) {
+            for (int i = 0; i < 4; i++) {
+                producer.enqueue(("MSG-" + i).getBytes(StandardCharsets.UTF_8));
+            }
+            long head = baseInfo.getAndIncreaseTotalOffset(); // 领取车厢 1 的第一个 offset，还没有创建车厢文件
+            for (int i = 0; i < 4; i++) {
+                Assertions.assertEquals("MSG-" + i, new String(reader.dequeue(), StandardCharsets.UTF_8));
+            }
+            Assertions.assertNull(reader.dequeue());
+
+            producer.enqueue("MSG-5".getBytes(StandardCharsets.UTF_8)); // 创建车厢 1
+            Assertions.assertNull(reader.dequeue());
+            JSharedMemCarriage carriage = new JSharedMemCarriage(baseInfo, head, null).mmap(FileChannel.MapMode.READ_WRITE);
+            carriage.getSegment(head).writeContent("MSG-4".getBytes(StandardCharsets.UTF_8));
+            carriage.close();
+            Assertions.assertEquals("MSG-4", new String(reader.dequeue(), StandardCharsets.UTF_8));
+            Assertions.assertEquals("MSG-5", new String(reader.dequeue(), StandardCharsets.UTF_8));
+        } finally {
+            baseInfo.close();
+        }
+    }
+
+    /**
+     * 超过容量的数据在领取 offset 之前被拒绝，不会留下读者永远等待的空洞
+     */
+    @Test
+    public void oversizedEnqueue() throws Exception {
+        String plainTopic = TOPIC + "-oversized";
+        Dictionary.deleteTopic(plainTopic);
+        try (JSharedMemProducer producer = new JSharedMemQueue(plainTopic, 64, 16).createProducer();
+             JSharedMemReader reader = new JSharedMemQueue(plainTopic, 64, 16).createReader("oversized")) {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> producer.enqueue(new byte[65]));
+            Assertions.assertThrows(IllegalArgumentException.class, () -> producer.enqueueDurable(new byte[65]));
+            Assertions.assertEquals(0, producer.getTotalOffset());
+            producer.enqueue(new byte[64]);
+            Assertions.assertEquals(64, reader.dequeue().length);
+        }
+
+        String taggedTopic = TOPIC + "-oversized-tagged";
+        Dictionary.deleteTopic(taggedTopic);
+        JSharedMemQueue taggedQueue = JSharedMemQueue.builder(taggedTopic).msgMaxSize(64).capacity(16).tagged(true).build();
+        try (JSharedMemProducer producer = taggedQueue.createProducer();
+             JSharedMemReader reader = taggedQueue.createReader("oversized")) {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> producer.enqueue(1L, new byte[57]));
+            Assertions.assertEquals(0, producer.getTotalOffset());
+            producer.enqueue(2L, new byte[56]);
+            Assertions.assertEquals(56, reader.dequeue().length);
+        }
+    }
+
+    /**
+     * V1 .base 文件 (总偏移量位于第 0 字节) 仍然可以打开并继续读写；新建的 V2 文件中总偏移量独占一个 128 字节的缓存行
+     */
+    @Test
+    public void baseLayout() throws Exception {
+        String v1Topic = TOPIC + "-v1";
+        Dictionary.deleteTopic(v1Topic);
+        Path v1Base = Dictionary.getAndMakeTopicDir(v1Topic).resolve(v1Topic + ".base");
+        ByteBuffer header = ByteBuffer.allocate(32).order(ByteOrder.nativeOrder());
+        header.putLong(0, 0).putLong(8, 1024).putInt(16, 64);
+        try (FileChannel channel = FileChannel.open(v1Base, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            channel.write(header, 0);
+            channel.truncate(1024 * 1024); // 旧版本创建的 1MB 文件
+            channel.write(ByteBuffer.allocate(1), 1024 * 1024 - 1);
+        }
+        JSharedMemQueue v1Queue = new JSharedMemQueue(v1Topic, 64, 1024);
+        try (JSharedMemProducer producer = v1Queue.createProducer();
+             JSharedMemReader reader = v1Queue.createReader("v1")) {
+            for (int i = 0; i < 5; i++) {
+                producer.enqueue(("V1-" + i).getBytes(StandardCharsets.UTF_8));
+            }
+            for (int i = 0; i < 5; i++) {
+                Assertions.assertEquals("V1-" + i, new String(reader.dequeue(), StandardCharsets.UTF_8));
+            }
+        }
+        ByteBuffer v1 = readHeader(v1Base);
+        Assertions.assertEquals(5, v1.getLong(0));
+        Assertions.assertEquals(0, v1.getInt(20)); // 不会被升级为 V2
+        Assertions.assertEquals(0, v1.getLong(JSharedMemBaseInfo.CACHE_LINE_PAD));
+
+        String v2Topic = TOPIC + "-v2";
+        Dictionary.deleteTopic(v2Topic);
+        try (JSharedMemProducer producer = new JSharedMemQueue(v2Topic, 64, 1024).createProducer()) {
+            for (int i = 0; i < 5; i++) {
+                producer.enqueue(new byte[8]);
+            }
+        }
+        ByteBuffer v2 = readHeader(Dictionary.getTopicDir(v2Topic).resolve(v2Topic + ".base"));
+        Assertions.assertEquals(JSharedMemBaseInfo.LAYOUT_V2, v2.getInt(20));
+        Assertions.assertEquals(0, v2.getLong(0));
+        Assertions.assertEquals(5, v2.getLong(JSharedMemBaseInfo.CACHE_LINE_PAD));
+        // 总偏移量所在的 128 字节中没有其他字段
+        for (int i = JSharedMemBaseInfo.CACHE_LINE_PAD + Long.BYTES; i < 2 * JSharedMemBaseInfo.CACHE_LINE_PAD; i++) {
+            Assertions.assertEquals(0, v2.get(i), "padding byte " + i);
+        }
+        // 其他字段都在第一个缓存行中，不会与总偏移量共享
+        for (int i = 32; i < JSharedMemBaseInfo.CACHE_LINE_PAD; i++) {
+            Assertions.assertEquals(0, v2.get(i), "header byte " + i);
+        }
+    }
+
+    private static ByteBuffer readHeader(Path path) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(2 * JSharedMemBaseInfo.CACHE_LINE_PAD).order(ByteOrder.nativeOrder());
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.read(buffer, 0);
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,49 @@
+package io.github.sunleader1997.jmemqueue;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 控制文件注册表测试
+ */
+public class RegistryTest {
+    private static final String TOPIC = "topic-registry";
+    private static final int HANDLES = 50;
+
+    @Test
+    public void shareMappings() throws Exception {
+        Dictionary.deleteTopic(TOPIC);
+        int before = JSharedMemRegistry.mappingCount();
+        JSharedMemQueue queue = new JSharedMemQueue(TOPIC, 64, 1024);
+        List<JSharedMemProducer> producers = new ArrayList<>();
+        List<JSharedMemReader> readers = new ArrayList<>();
+        for (int i = 0; i < HANDLES; i++) {
+            producers.add(queue.createProducer());
+            readers.add(queue.createReader("registry"));
+        }
+        // 句柄再多也只有 .base 与 group 文件两个映射
+        Assertions.assertEquals(before + 2, JSharedMemRegistry.mappingCount());
+        File baseFile = Dictionary.getTopicDir(TOPIC).resolve(TOPIC + ".base").toFile();
+        Assertions.assertEquals(4096, baseFile.length());
+
+        for (int i = 0; i < HANDLES; i++) {
+            Assertions.assertTrue(producers.get(i).enqueue(("MSG-" + i).getBytes()));
+        }
+        // 共享同一个映射，所有读者都能看到全部消息
+        Assertions.assertEquals("MSG-0", new String(readers.get(HANDLES - 1).dequeue()));
+        Assertions.assertEquals("MSG-1", new String(readers.get(0).dequeue()));
+
+        for (JSharedMemProducer producer : producers) {
+            producer.close();
+        }
+        for (JSharedMemReader reader : readers) {
+            reader.close();
+        }
+        Assertions.assertEquals(before, JSharedMemRegistry.mappingCount());
+        Dictionary.deleteTopic(TOPIC);
+    }
+}
@@ -0,0 +1,106 @@
+package io.github.sunleader1997.jmemqueue;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * 复制测试 - 回环地址上的发送端与接收端
+ */
+public class ReplicationTest {
+    private static final String SOURCE_TOPIC = "topic-replication-source";
+    private static final String REPLICA_TOPIC = "topic-replication-replica";
+
+    @Test
+    public void replicateOverLoopback() throws Exception {
+        Dictionary.deleteTopic(SOURCE_TOPIC);
+        Dictionary.deleteTopic(REPLICA_TOPIC);
+        JSharedMemQueue source = JSharedMemQueue.builder(SOURCE_TOPIC).msgMaxSize(64).capacity(1024).tagged(true).build();
+        JSharedMemQueue replica = new JSharedMemQueue(REPLICA_TOPIC);
+        InetSocketAddress loopback = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        try (JSharedMemProducer producer = source.createProducer();
+             JSharedMemReplicationSink sink = replica.createReplicationSink(loopback)) {
+            InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(), sink.getPort());
+            for (int i = 0; i < 3000; i++) {
+                producer.enqueue(i, ByteBuffer.allocate(4).putInt(i).array());
+            }
+            // 复制已有数据的同时继续生产
+            try (JSharedMemReplicationSource replication = source.createReplicationSource(target)) {
+                for (int i = 3000; i < 6000; i++) {
+                    producer.enqueue(i, ByteBuffer.allocate(4).putInt(i).array());
+                }
+                awaitOffset(sink, 6000);
+                awaitReplicated(replication, 6000);
+            }
+            // 接收端确认的 offset 与普通 group 一样持久化
+            try (JSharedMemReader group = source.createReader(JSharedMemReplicationSource.DEF_GROUP)) {
+                Assertions.assertEquals(6000, group.getReaderOffset());
+            }
+            // 重连后从接收端的位置继续
+            for (int i = 6000; i < 7000; i++) {
+                producer.enqueue(i, ByteBuffer.allocate(4).putInt(i).array());
+            }
+            try (JSharedMemReplicationSource ignored = source.createReplicationSource(target)) {
+                awaitOffset(sink, 7000);
+            }
+        }
+        // 副本布局与源 topic 相同，可以直接消费
+        try (JSharedMemReader reader = replica.createReader()) {
+            Assertions.assertTrue(reader.isTagged());
+            for (int i = 0; i < 7000; i++) {
+                JSharedMemSegment segment = reader.getReadableSegment();
+                Assertions.assertNotNull(segment);
+                Assertions.assertEquals(i, segment.getTag());
+                Assertions.assertEquals(i, ByteBuffer.wrap(segment.readContent()).getInt());
+            }
+            Assertions.assertNull(reader.getReadableSegment());
+        }
+    }
+
+    /**
+     * 非法的帧 (越过车厢映射范围) 直接断开连接，不推进本地总偏移量
+     */
+    @Test
+    public void rejectBadFrame() throws Exception {
+        Dictionary.deleteTopic(REPLICA_TOPIC);
+        JSharedMemQueue replica = new JSharedMemQueue(REPLICA_TOPIC);
+        try (JSharedMemReplicationSink sink = replica.createReplicationSink(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+             SocketChannel channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), sink.getPort()))) {
+            ByteBuffer handshake = ByteBuffer.allocate(JSharedMemReplicationSource.HANDSHAKE_SIZE);
+            handshake.putInt(JSharedMemReplicationSource.MAGIC).putInt(JSharedMemReplicationSource.VERSION)
+                    .putLong(1024).putInt(64).putInt(0).flip();
+            JSharedMemReplicationSource.writeFully(channel, handshake);
+            ByteBuffer reply = ByteBuffer.allocate(Long.BYTES);
+            JSharedMemReplicationSource.readFully(channel, reply);
+            Assertions.assertEquals(0, reply.flip().getLong());
+
+            ByteBuffer frame = ByteBuffer.allocate(JSharedMemReplicationSource.FRAME_HEADER_SIZE);
+            frame.putLong(0).putLong(Long.MAX_VALUE - 8).putLong(16).putLong(1).flip();
+            JSharedMemReplicationSource.writeFully(channel, frame);
+            ByteBuffer ack = ByteBuffer.allocate(Long.BYTES);
+            Assertions.assertThrows(IOException.class, () -> JSharedMemReplicationSource.readFully(channel, ack));
+            Assertions.assertEquals(0, sink.getTotalOffset());
+        }
+    }
+
+    private static void awaitReplicated(JSharedMemReplicationSource replication, long offset) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (replication.getReplicatedOffset() < offset && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(offset, replication.getReplicatedOffset());
+    }
+
+    private static void awaitOffset(JSharedMemReplicationSink sink, long offset) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (sink.getTotalOffset() < offset && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(offset, sink.getTotalOffset());
+    }
+}
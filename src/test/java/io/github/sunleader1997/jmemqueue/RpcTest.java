@@ -0,0 +1,135 @@
+package io.github.sunleader1997.jmemqueue;
+
+import io.github.sunleader1997.jmemqueue.enums.ContentSize;
+import io.github.sunleader1997.jmemqueue.exceptions.RpcRemoteException;
+import io.github.sunleader1997.jmemqueue.storage.StoragePolicy;
+import io.github.sunleader1997.jmemqueue.wait.WaitStrategy;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 请求/应答测试
+ */
+public class RpcTest {
+    private static final String SERVICE = "rpc-echo";
+    private static final int CALL_COUNT = 10_000;
+
+    @Test
+    public void echo() throws Exception {
+        Dictionary.deleteTopic(SERVICE);
+        JSharedMemRpc rpc = new JSharedMemRpc(SERVICE, ContentSize.KB_1.getSize(), 4096, StoragePolicy.disk(), WaitStrategy.yielding());
+        try (JSharedMemRpc.Server server = rpc.serve(request -> {
+            String text = StandardCharsets.UTF_8.decode(request).toString();
+            if (text.equals("boom")) throw new IllegalArgumentException("bad request");
+            return text.toUpperCase().getBytes(StandardCharsets.UTF_8);
+        }, 1);
+             JSharedMemRpc.Client client = rpc.connect()) {
+            ByteBuffer reply = client.call("hello".getBytes(StandardCharsets.UTF_8), 5, TimeUnit.SECONDS).get();
+            Assertions.assertEquals("HELLO", StandardCharsets.UTF_8.decode(reply).toString());
+
+            ExecutionException error = Assertions.assertThrows(ExecutionException.class,
+                    () -> client.call("boom".getBytes(StandardCharsets.UTF_8), 5, TimeUnit.SECONDS).get());
+            Assertions.assertInstanceOf(RpcRemoteException.class, error.getCause());
+
+            long start = System.nanoTime();
+            for (int i = 0; i < CALL_COUNT; i++) {
+                byte[] request = ("m" + i).getBytes(StandardCharsets.UTF_8);
+                ByteBuffer response = client.call(request, 5, TimeUnit.SECONDS).get();
+                Assertions.assertEquals("M" + i, StandardCharsets.UTF_8.decode(response).toString());
+            }
+            System.out.println("RPC 平均往返 (call + get): " + (System.nanoTime() - start) / CALL_COUNT / 1000.0 + " μs");
+
+            start = System.nanoTime();
+            for (int i = 0; i < CALL_COUNT; i++) {
+                byte[] request = ("s" + i).getBytes(StandardCharsets.UTF_8);
+                ByteBuffer response = client.invoke(request, 5, TimeUnit.SECONDS);
+                Assertions.assertEquals("S" + i, StandardCharsets.UTF_8.decode(response).toString());
+            }
+            System.out.println("RPC 平均往返 (invoke 自旋): " + (System.nanoTime() - start) / CALL_COUNT / 1000.0 + " μs");
+            Assertions.assertThrows(RpcRemoteException.class, () -> client.invoke("boom".getBytes(StandardCharsets.UTF_8), 5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void timeout() throws Exception {
+        Dictionary.deleteTopic(SERVICE + "-idle");
+        JSharedMemRpc rpc = new JSharedMemRpc(SERVICE + "-idle", ContentSize.KB_1.getSize(), 4096, StoragePolicy.disk(), WaitStrategy.backoff());
+        try (JSharedMemRpc.Client client = rpc.connect()) {
+            ExecutionException error = Assertions.assertThrows(ExecutionException.class,
+                    () -> client.call(new byte[1], 50, TimeUnit.MILLISECONDS).get());
+            Assertions.assertInstanceOf(TimeoutException.class, error.getCause());
+        }
+    }
+
+    /**
+     * 超过容量的请求在发送前被拒绝；超过容量的应答与过长的异常描述不会让服务端停下
+     */
+    @Test
+    public void oversized() throws Exception {
+        String service = SERVICE + "-oversized";
+        Dictionary.deleteTopic(service);
+        JSharedMemRpc rpc = new JSharedMemRpc(service, 64, 4096, StoragePolicy.disk(), WaitStrategy.yielding());
+        try (JSharedMemRpc.Server ignored = rpc.serve(request -> {
+            String text = StandardCharsets.UTF_8.decode(request).toString();
+            if (text.equals("big")) return new byte[4000];
+            if (text.equals("boom")) throw new IllegalStateException("错误".repeat(100));
+            return text.toUpperCase().getBytes(StandardCharsets.UTF_8);
+        }, 1);
+             JSharedMemRpc.Client client = rpc.connect()) {
+            Assertions.assertThrows(IllegalArgumentException.class, () -> client.invoke(new byte[4000], 5, TimeUnit.SECONDS));
+            Assertions.assertThrows(IllegalArgumentException.class, () -> client.call(new byte[57], 5, TimeUnit.SECONDS));
+            Assertions.assertEquals("A", StandardCharsets.UTF_8.decode(client.invoke(bytes("a"), 5, TimeUnit.SECONDS)).toString());
+
+            RpcRemoteException big = Assertions.assertThrows(RpcRemoteException.class, () -> client.invoke(bytes("big"), 5, TimeUnit.SECONDS));
+            Assertions.assertTrue(big.getMessage().contains("4000B"), big.getMessage());
+            RpcRemoteException boom = Assertions.assertThrows(RpcRemoteException.class, () -> client.invoke(bytes("boom"), 5, TimeUnit.SECONDS));
+            Assertions.assertTrue(boom.getMessage().startsWith("java.lang.IllegalStateException: 错误"), boom.getMessage());
+            Assertions.assertFalse(boom.getMessage().contains("�"), boom.getMessage()); // 没有截断在字符中间
+            Assertions.assertEquals("B", StandardCharsets.UTF_8.decode(client.invoke(bytes("b"), 5, TimeUnit.SECONDS)).toString());
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 客户端关闭后才到达的应答被丢弃，服务端不会重新创建已删除的应答 topic
+     */
+    @Test
+    public void lateReply() throws Exception {
+        String service = SERVICE + "-late";
+        Dictionary.deleteTopic(service);
+        JSharedMemRpc rpc = new JSharedMemRpc(service, ContentSize.KB_1.getSize(), 4096, StoragePolicy.disk(), WaitStrategy.yielding());
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch handled = new CountDownLatch(1);
+        try (JSharedMemRpc.Server ignored = rpc.serve(request -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            handled.countDown();
+            return new byte[1];
+        }, 1)) {
+            String replyTopic;
+            try (JSharedMemRpc.Client client = rpc.connect()) {
+                replyTopic = service + JSharedMemRpc.REPLY_SEPARATOR + client.getClientId();
+                Assertions.assertThrows(TimeoutException.class, () -> client.invoke(new byte[1], 50, TimeUnit.MILLISECONDS));
+            }
+            Assertions.assertFalse(Files.exists(Dictionary.getTopicDir(replyTopic)));
+            release.countDown();
+            Assertions.assertTrue(handled.await(5, TimeUnit.SECONDS));
+            Thread.sleep(200);
+            Assertions.assertFalse(Files.exists(Dictionary.getTopicDir(replyTopic)));
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package io.github.sunleader1997.jmemqueue;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多 topic 选择器测试
+ */
+public class SelectorTest {
+    private static final int TOPIC_COUNT = 200;
+
+    private static String topic(int index) {
+        return "topic-selector-" + index;
+    }
+
+    @Test
+    public void selectReadyTopics() throws Exception {
+        List<JSharedMemQueue> queues = new ArrayList<>();
+        List<JSharedMemReader> readers = new ArrayList<>();
+        JSharedMemSelector selector = new JSharedMemSelector();
+        for (int i = 0; i < TOPIC_COUNT; i++) {
+            Dictionary.deleteTopic(topic(i));
+            JSharedMemQueue queue = new JSharedMemQueue(topic(i), 64, 1024);
+            queues.add(queue);
+            JSharedMemReader reader = queue.createReader();
+            readers.add(reader);
+            selector.register(reader);
+        }
+        try {
+            Assertions.assertTrue(selector.selectNow().isEmpty());
+            produce(queues.get(7), 3);
+            produce(queues.get(150), 1);
+            List<JSharedMemReader> ready = selector.select(1, TimeUnit.SECONDS);
+            Assertions.assertEquals(List.of(readers.get(7), readers.get(150)), sortByTopic(ready, readers));
+
+            // 水平触发: 没有读完的 reader 下一次仍然返回
+            Assertions.assertNotNull(readers.get(7).dequeue());
+            while (readers.get(150).dequeue() != null) ;
+            Assertions.assertEquals(List.of(readers.get(7)), selector.selectNow());
+            while (readers.get(7).dequeue() != null) ;
+            Assertions.assertTrue(selector.select(50, TimeUnit.MILLISECONDS).isEmpty());
+
+            // 等待中被其他线程唤醒
+            Thread producer = new Thread(() -> {
+                try {
+                    Thread.sleep(100);
+                    produce(queues.get(99), 1);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            producer.start();
+            long begin = System.nanoTime();
+            Assertions.assertEquals(List.of(readers.get(99)), selector.select(10, TimeUnit.SECONDS));
+            Assertions.assertTrue(System.nanoTime() - begin < TimeUnit.SECONDS.toNanos(5));
+            producer.join();
+        } finally {
+            for (JSharedMemReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * 两个 group 的选择器监听同一个 topic: 一个选择器清零就绪位之后另一个仍然能被唤醒
+     */
+    @Test
+    public void twoSelectorsOneTopic() throws Exception {
+        String topic = "topic-selector-shared";
+        Dictionary.deleteTopic(topic);
+        JSharedMemQueue queue = new JSharedMemQueue(topic, 64, 1024);
+        JSharedMemReader first = queue.createReader("selector-g1");
+        JSharedMemReader second = queue.createReader("selector-g2");
+        JSharedMemSelector firstSelector = new JSharedMemSelector().register(first);
+        JSharedMemSelector secondSelector = new JSharedMemSelector().register(second);
+        try {
+            Assertions.assertTrue(firstSelector.selectNow().isEmpty());
+            Assertions.assertTrue(secondSelector.selectNow().isEmpty());
+            for (int round = 0; round < 3; round++) {
+                produce(queue, 1);
+                // 第一个选择器先清零就绪位
+                Assertions.assertEquals(List.of(first), firstSelector.select(1, TimeUnit.SECONDS));
+                Assertions.assertEquals(List.of(second), secondSelector.select(1, TimeUnit.SECONDS));
+                Assertions.assertNotNull(first.dequeue());
+                Assertions.assertNotNull(second.dequeue());
+            }
+            // 第二个选择器在等待中，第一个选择器清零之后才发布的数据同样能唤醒它
+            Thread producer = new Thread(() -> {
+                try {
+                    Thread.sleep(100);
+                    produce(queue, 1);
+                    firstSelector.selectNow();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            producer.start();
+            Assertions.assertEquals(List.of(second), secondSelector.select(10, TimeUnit.SECONDS));
+            producer.join();
+        } finally {
+            first.close();
+            second.close();
+            Dictionary.deleteTopic(topic);
+        }
+    }
+
+    private static void produce(JSharedMemQueue queue, int count) throws Exception {
+        try (JSharedMemProducer producer = queue.createProducer()) {
+            for (int i = 0; i < count; i++) {
+                producer.enqueue(new byte[8]);
+            }
+        }
+    }
+
+    private static List<JSharedMemReader> sortByTopic(List<JSharedMemReader> ready, List<JSharedMemReader> readers) {
+        List<JSharedMemReader> sorted = new ArrayList<>(ready);
+        sorted.sort((a, b) -> Integer.compare(readers.indexOf(a), readers.indexOf(b)));
+        return sorted;
+    }
+}
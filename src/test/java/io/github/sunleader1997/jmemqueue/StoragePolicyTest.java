@@ -0,0 +1,55 @@
+package io.github.sunleader1997.jmemqueue;
+
+import io.github.sunleader1997.jmemqueue.enums.ContentSize;
+import io.github.sunleader1997.jmemqueue.storage.StoragePolicy;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * 存储策略测试
+ */
+public class StoragePolicyTest {
+    private static final String TOPIC = "topic-shm";
+
+    /**
+     * 纯内存模式，数据位于 /dev/shm
+     */
+    @Test
+    public void memoryMode() throws Exception {
+        StoragePolicy storagePolicy = StoragePolicy.memory();
+        Dictionary.deleteTopic(storagePolicy, TOPIC);
+        JSharedMemQueue queue = JSharedMemQueue.builder(TOPIC)
+                .contentSize(ContentSize.B_512)
+                .capacity(1000)
+                .powerOfTwoCapacity(true)
+                .storage(storagePolicy)
+                .build();
+        try (JSharedMemProducer producer = queue.createProducer();
+             JSharedMemReader reader = queue.createReader()) {
+            for (int i = 0; i < 3000; i++) {
+                producer.enqueue(String.valueOf(i).getBytes(StandardCharsets.UTF_8));
+            }
+            for (int i = 0; i < 3000; i++) {
+                byte[] data = reader.dequeue();
+                Assertions.assertEquals(String.valueOf(i), new String(data, StandardCharsets.UTF_8));
+            }
+            Assertions.assertNull(reader.dequeue());
+        }
+        Assertions.assertTrue(Files.exists(StoragePolicy.DEV_SHM.resolve(Dictionary.ROOT_NAME).resolve(TOPIC).resolve("2.carriage")));
+        Dictionary.deleteTopic(storagePolicy, TOPIC);
+    }
+
+    @Test
+    public void hugetlbfsAlignment() {
+        StoragePolicy storagePolicy = StoragePolicy.hugetlbfs(Paths.get("/mnt/huge"));
+        Assertions.assertEquals(StoragePolicy.HUGE_PAGE_2MB, storagePolicy.alignCarriageSize(1));
+        Assertions.assertEquals(StoragePolicy.HUGE_PAGE_2MB, storagePolicy.alignCarriageSize(StoragePolicy.HUGE_PAGE_2MB));
+        Assertions.assertEquals(2 * StoragePolicy.HUGE_PAGE_2MB, storagePolicy.alignCarriageSize(StoragePolicy.HUGE_PAGE_2MB + 1));
+        // 控制文件不放在大页上
+        Assertions.assertNotEquals(storagePolicy.getParentDir(), storagePolicy.getCarriageParentDir());
+    }
+}
@@ -0,0 +1,53 @@
+package io.github.sunleader1997.jmemqueue;
+
+import io.github.sunleader1997.jmemqueue.enums.ContentSize;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * tag 过滤测试
+ */
+public class TagFilterTest {
+    private static final String TOPIC = "topic-tagged";
+    private static final int MESSAGE_COUNT = 5000;
+
+    @Test
+    public void filterByTag() throws Exception {
+        Dictionary.deleteTopic(TOPIC);
+        JSharedMemQueue queue = JSharedMemQueue.builder(TOPIC)
+                .contentSize(ContentSize.B_512)
+                .capacity(1024)
+                .tagged(true)
+                .build();
+        try (JSharedMemProducer producer = queue.createProducer()) {
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                producer.enqueue(i % 10, String.valueOf(i).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        try (JSharedMemReader reader = queue.createReader()) {
+            reader.setTagFilter(tag -> tag == 3);
+            int count = 0;
+            JSharedMemSegment segment;
+            while ((segment = reader.getReadableSegment()) != null) {
+                Assertions.assertEquals(3, segment.getTag());
+                int value = Integer.parseInt(new String(segment.readContent(), StandardCharsets.UTF_8));
+                Assertions.assertEquals(3, value % 10);
+                count++;
+            }
+            Assertions.assertEquals(MESSAGE_COUNT / 10, count);
+        }
+    }
+
+    @Test
+    public void untaggedTopicRejectsFilter() throws Exception {
+        Dictionary.deleteTopic(TOPIC + "-plain");
+        JSharedMemQueue queue = new JSharedMemQueue(TOPIC + "-plain", ContentSize.B_512, 1024);
+        try (JSharedMemProducer producer = queue.createProducer();
+             JSharedMemReader reader = queue.createReader()) {
+            Assertions.assertThrows(IllegalStateException.class, () -> reader.setTagFilter(tag -> true));
+            Assertions.assertThrows(IllegalStateException.class, () -> producer.enqueue(1L, new byte[1]));
+        }
+    }
+}